@@ -0,0 +1,95 @@
+package com.logentries.jvm;
+
+import com.logentries.spi.DeviceInfo;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Host metadata on a plain JVM: the local host name, and a trace ID hashed from the host name and
+ * the OS properties, so it stays the same between restarts on the same host.
+ */
+public class JvmDeviceInfo implements DeviceInfo {
+
+    private final String deviceId;
+
+    private volatile String traceID = null;
+    private volatile String hostName = null;
+
+    public JvmDeviceInfo() {
+        this("unknown");
+    }
+
+    /**
+     * @param deviceId the value of the DeviceId field, e.g. an instance ID of the service.
+     */
+    public JvmDeviceInfo(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    @Override
+    public void load() {
+        getHostName();
+        getTraceId();
+    }
+
+    @Override
+    public String getTraceId() {
+        String id = traceID;
+        if (id == null) {
+            synchronized (this) {
+                if (traceID == null) {
+                    traceID = computeTraceID(getHostName());
+                }
+                id = traceID;
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public String getHostName() {
+        String name = hostName;
+        if (name == null) {
+            synchronized (this) {
+                if (hostName == null) {
+                    hostName = loadHostName();
+                }
+                name = hostName;
+            }
+        }
+        return name;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    private static String loadHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            // We cannot resolve local host name - so won't use it at all.
+            return "";
+        }
+    }
+
+    private static String computeTraceID(String hostName) {
+        try {
+            MessageDigest hashGen = MessageDigest.getInstance("MD5");
+            hashGen.update((hostName + System.getProperty("os.name") + System.getProperty("os.version") +
+                    System.getProperty("os.arch")).getBytes(Charset.forName("UTF-8")));
+            StringBuilder conv = new StringBuilder();
+            for (byte b : hashGen.digest()) {
+                conv.append(String.format("%02X", b & 0xff));
+            }
+            return conv.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.logentries.jvm;
+
+import com.logentries.logger.Priority;
+import com.logentries.misc.InternalLog;
+import com.logentries.spi.DeviceInfo;
+import com.logentries.spi.Diagnostics;
+import com.logentries.spi.HttpTransport;
+import com.logentries.spi.Platform;
+
+import java.io.File;
+
+/**
+ * Platform for the plain JVM - backend services, unit tests and benchmarks:
+ * <pre>
+ * AsyncLoggingWorker worker = new AsyncLoggingWorker(new JvmPlatform(new File("/var/lib/myservice/logentries")),
+ *         new LoggerConfig.Builder("159axea4-xxxx-xxxx-xxxx-xxxxxxxxxxxx").build());
+ * </pre>
+ * Diagnostic messages of WARN priority and above go to standard error.
+ */
+public class JvmPlatform implements Platform {
+
+    private final File storageDir;
+    private final DeviceInfo deviceInfo;
+
+    private final Diagnostics diagnostics = InternalLog.STDERR;
+
+    /**
+     * @param storageDir directory for the local storage, the journal and the crash file; created
+     *                   if it does not exist.
+     */
+    public JvmPlatform(File storageDir) {
+        this(storageDir, new JvmDeviceInfo());
+    }
+
+    public JvmPlatform(File storageDir, DeviceInfo deviceInfo) {
+        this.storageDir = storageDir;
+        this.deviceInfo = deviceInfo;
+    }
+
+    @Override
+    public File getStorageDir() {
+        if (!storageDir.isDirectory() && !storageDir.mkdirs()) {
+            diagnostics.println(Priority.ERROR, "LogentriesAndroidLogger", "Cannot create " + storageDir);
+        }
+        return storageDir;
+    }
+
+    @Override
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    @Override
+    public DeviceInfo getDeviceInfo() {
+        return deviceInfo;
+    }
+
+    @Override
+    public HttpTransport newHttpTransport() {
+        return new UrlConnectionHttpTransport();
+    }
+}
@@ -0,0 +1,73 @@
+package com.logentries.jvm;
+
+import com.logentries.spi.HttpTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * HTTP transport built on {@link HttpURLConnection}, which keeps the connections alive and reuses
+ * them between the requests.
+ */
+public class UrlConnectionHttpTransport implements HttpTransport {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    // Reused to drain the responses, so the connections can be kept alive.
+    private final byte[] drainBuffer = new byte[512];
+
+    @Override
+    public void post(String url, String body) throws IOException {
+        byte[] data = body.getBytes(UTF8);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            connection.setFixedLengthStreamingMode(data.length);
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(data);
+            } finally {
+                output.close();
+            }
+
+            int status = connection.getResponseCode();
+            InputStream response = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (response != null) {
+                try {
+                    while (response.read(drainBuffer) >= 0) {
+                        // Discard the response.
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+            if (status >= 300) {
+                throw new StatusException(status, connection.getResponseMessage());
+            }
+        } catch (IOException ex) {
+            // The connection may be broken - don't let it be reused.
+            if (!(ex instanceof StatusException)) {
+                connection.disconnect();
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() {
+        // The connections are pooled by HttpURLConnection itself.
+    }
+}
@@ -0,0 +1,1492 @@
+package com.logentries.logger;
+
+import com.logentries.metrics.MetricRegistry;
+import com.logentries.misc.InternalLog;
+import com.logentries.misc.Utils;
+import com.logentries.net.LogentriesClient;
+import com.logentries.spi.Platform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncLoggingWorker {
+
+    /**
+     * Memory pressure levels passed to {@link #onMemoryPressure(int)}.
+     */
+    public static final int MEMORY_PRESSURE_NONE = 0;
+    public static final int MEMORY_PRESSURE_LOW = 1;
+    public static final int MEMORY_PRESSURE_CRITICAL = 2;
+
+	/*
+     * Constants
+	 */
+
+    private static final String TAG = "LogentriesAndroidLogger";
+    private static final String PROFILER_TAG = "LogentriesSourceProfiler";
+    private static final String METRICS_TAG = "LogentriesMetrics";
+
+    private static final long GAP_REPORT_INTERVAL = 1000; // milliseconds.
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    private static final int RECONNECT_WAIT = 100; // milliseconds.
+    private static final int BROKEN_CONNECTION_POLL_TIME = 1000; // milliseconds.
+    /**
+     * Size of the internal event queue.
+     */
+    private static final int QUEUE_SIZE = 32768;
+    /**
+     * Size of the urgent (high-severity) event lane.
+     */
+    private static final int URGENT_QUEUE_SIZE = 1024;
+    /**
+     * Events of this or higher priority go to the urgent lane.
+     */
+    private static final int URGENT_PRIORITY = Priority.ERROR;
+
+    /**
+     * Weights of the live traffic and the previous session's backlog - while both have messages
+     * to send, LIVE_TRAFFIC_WEIGHT live messages are sent per BACKLOG_WEIGHT backlog ones.
+     */
+    static final int LIVE_TRAFFIC_WEIGHT = 4;
+    static final int BACKLOG_WEIGHT = 1;
+    /**
+     * Limit on individual log length ie. 2^16
+     */
+    public static final int LOG_LENGTH_LIMIT = 65536;
+
+    /**
+     * In-memory queue budgets while the device is short of memory, as fractions of QUEUE_SIZE.
+     * The regular budget is restored MEMORY_BUDGET_RESTORE_DELAY ms after the last trim request.
+     */
+    private static final int LOW_MEMORY_BUDGET = QUEUE_SIZE / 4;
+    private static final int CRITICAL_MEMORY_BUDGET = QUEUE_SIZE / 16;
+    private static final long MEMORY_BUDGET_RESTORE_DELAY = 60000; // milliseconds.
+
+    private static final int MAX_NETWORK_FAILURES_ALLOWED = 3;
+    private static final int MAX_RECONNECT_ATTEMPTS = 3;
+
+    /**
+     * Error message displayed when invalid API key is detected.
+     */
+    private static final String INVALID_TOKEN = "Given Token does not look right!";
+
+    /**
+     * Error message displayed when queue overflow occurs
+     */
+    private static final String QUEUE_OVERFLOW = "Logentries Buffer Queue Overflow. Message Dropped!";
+
+    /**
+     * Indicator if the socket appender has been started.
+     */
+    private boolean started = false;
+
+    /**
+     * Whether should send logs with or without meta data
+     */
+    private boolean sendRawLogMessage = false;
+
+    /**
+     * Asynchronous socket appender.
+     */
+    private SocketAppender appender;
+
+    /**
+     * Message queue.
+     */
+    private LogQueue queue;
+
+    /**
+     * Flush handshake between {@link #close(long)} and the socket appender: close requests a flush,
+     * and the appender reports back once it has sent (or stored) everything queued so far,
+     * including the batch it is collecting and the batches being encoded - or when it stops.
+     * Whatever is left when the flush times out is saved to the local storage.
+     */
+    private final Object flushLock = new Object();
+    private volatile boolean flushRequested = false; // Written under flushLock.
+    private boolean flushed = false;                 // Guarded by flushLock.
+    private boolean appenderStopped = false;         // Guarded by flushLock.
+
+    /**
+     * Logs queue storage. Created by the socket appender thread, so all storage access
+     * happens off the caller's thread.
+     */
+    private LogStorage localStorage;
+
+    /**
+     * Journal segment of the current session (journal mode only). Opened by the socket appender
+     * thread - the events queued before that are journaled when they are taken off the queue.
+     */
+    private volatile LogJournal journal = null;
+    private final boolean usingJournal;
+
+    /**
+     * Self-monitoring counters.
+     */
+    private final LoggerMetrics metrics = new LoggerMetrics(QUEUE_SIZE);
+
+    /**
+     * Max. number of events kept in the queue before they are spilled to the local storage,
+     * lowered temporarily on trim memory requests.
+     */
+    private volatile int memoryBudget = QUEUE_SIZE;
+    private volatile long memoryBudgetRestoreTime = 0;
+    long memoryBudgetRestoreDelay = MEMORY_BUDGET_RESTORE_DELAY; // Shortened by the tests.
+
+    /**
+     * Memory pressure actions requested from the socket appender thread.
+     */
+    private volatile boolean spillRequested = false;
+    private volatile boolean bufferReleaseRequested = false;
+
+    /**
+     * The environment the worker runs in - used for the deferred storage and metadata initialization.
+     */
+    private final Platform platform;
+
+    /**
+     * Tracks the heaviest log sources if the profiler is on.
+     */
+    private SourceProfiler profiler = null;
+    private volatile SourceProfiler.Listener profilerListener = null;
+
+    /**
+     * Metrics aggregated on the device and sent as periodic summaries.
+     */
+    private final MetricRegistry metricRegistry;
+
+    /**
+     * ID of the logging session and the sequence number of the next event, stamped on every
+     * queued event so that the losses can be detected from the received stream.
+     */
+    private final String sessionId;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Events lost at the drop points, to be reported in gap records.
+     */
+    private final GapTracker gaps = new GapTracker(metrics);
+
+    /**
+     * Saves the pending events when the app crashes; null unless enabled in the config.
+     */
+    private CrashHandler crashHandler = null;
+
+    public AsyncLoggingWorker(Platform platform, LoggerConfig config) throws IOException {
+
+        if (!checkTokenFormat(config.getToken())) {
+            throw new IllegalArgumentException(INVALID_TOKEN);
+        }
+
+        // Everything that may touch the disk or the network is deferred to the socket appender
+        // thread, so the worker can be created (and start accepting logs) from the main thread.
+        this.platform = platform;
+        InternalLog.setDiagnostics(platform.getDiagnostics());
+        Utils.setDeviceInfo(platform.getDeviceInfo());
+        queue = new LogQueue(QUEUE_SIZE, URGENT_QUEUE_SIZE);
+        // Not a random UUID - SecureRandom may take a while to seed on the caller's thread.
+        sessionId = new UUID(System.currentTimeMillis(), new Random().nextLong()).toString();
+        usingJournal = config.isUsingJournal();
+        // The appender only schedules the flush while there is something to report.
+        metricRegistry = new MetricRegistry(config.getMetricsFlushIntervalMs(), new Runnable() {
+            @Override
+            public void run() {
+                queue.wakeUp();
+            }
+        });
+        if (config.getProfilerTopK() > 0) {
+            profiler = new SourceProfiler(config.getProfilerTopK(), config.getProfilerReportIntervalMs());
+        }
+        if (config.isCapturingCrashes()) {
+            crashHandler = new CrashHandler(this, config.getCrashFlushBudgetMs());
+            crashHandler.install();
+        }
+        appender = new SocketAppender(config, this.sendRawLogMessage);
+        appender.start();
+        started = true;
+    }
+
+    public AsyncLoggingWorker(Platform platform, boolean useSsl, boolean useHttpPost, boolean useDataHub, String logToken,
+                              String dataHubAddress, int dataHubPort, boolean logHostName) throws IOException {
+        this(platform, buildConfig(useSsl, useHttpPost, useDataHub, logToken, dataHubAddress, dataHubPort, logHostName));
+    }
+
+    public AsyncLoggingWorker(Platform platform, boolean useSsl, boolean useHttpPost, String logToken) throws IOException {
+        this(platform, useSsl, useHttpPost, false, logToken, null, 0, true);
+    }
+
+    public AsyncLoggingWorker(Platform platform, boolean useSsl, String logToken) throws IOException {
+        this(platform, useSsl, false, false, logToken, null, 0, true);
+    }
+
+    public AsyncLoggingWorker(Platform platform, boolean useSsl, String logToken, String dataHubAddr, int dataHubPort)
+            throws IOException {
+        this(platform, useSsl, false, true, logToken, dataHubAddr, dataHubPort, true);
+    }
+
+    public LoggerMetrics getMetrics() {
+        return metrics;
+    }
+
+    Thread getAppenderThread() {
+        return appender;
+    }
+
+    /**
+     * Reacts to the memory pressure reported by the system: releases the reusable buffers and lowers
+     * the in-memory queue budget for a while. The regular events above the budget are spilled to the
+     * local storage; the urgent ones always stay in memory.
+     *
+     * @param pressure one of the MEMORY_PRESSURE_* levels.
+     */
+    public void onMemoryPressure(int pressure) {
+        metrics.onTrimMemoryRequest();
+
+        if (pressure == MEMORY_PRESSURE_CRITICAL) {
+            lowerMemoryBudget(CRITICAL_MEMORY_BUDGET);
+            spillRequested = true;
+        } else if (pressure == MEMORY_PRESSURE_LOW) {
+            lowerMemoryBudget(LOW_MEMORY_BUDGET);
+            if (queue.size() > LOW_MEMORY_BUDGET) {
+                spillRequested = true;
+            }
+        }
+        bufferReleaseRequested = true;
+        queue.wakeUp();
+    }
+
+    private void lowerMemoryBudget(int budget) {
+        memoryBudgetRestoreTime = System.currentTimeMillis() + memoryBudgetRestoreDelay;
+        if (budget < memoryBudget) {
+            memoryBudget = budget;
+            metrics.setMemoryBudget(budget);
+        }
+    }
+
+    /**
+     * Returns true if the in-memory queue budget is lowered; restores it once the restore
+     * delay has passed since the last trim request.
+     */
+    private boolean isMemoryBudgetLowered() {
+        if (memoryBudget == QUEUE_SIZE) {
+            return false;
+        }
+        if (System.currentTimeMillis() < memoryBudgetRestoreTime) {
+            return true;
+        }
+        memoryBudget = QUEUE_SIZE;
+        metrics.setMemoryBudget(QUEUE_SIZE);
+        return false;
+    }
+
+    /**
+     * Returns the ID of the logging session, sent with every event along with its sequence number.
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Sets the listener receiving the reports of the log sources profiler. If there is none,
+     * the reports are logged as events of their own.
+     */
+    public void setSourceProfilerListener(SourceProfiler.Listener listener) {
+        this.profilerListener = listener;
+    }
+
+    public void setSendRawLogMessage(boolean sendRawLogMessage){
+        this.sendRawLogMessage = sendRawLogMessage;
+    }
+
+    public boolean getSendRawLogMessage(){
+        return sendRawLogMessage;
+    }
+
+    public void addLineToQueue(String line) {
+        addLineToQueue(line, Priority.INFO);
+    }
+
+    /**
+     * Adds the line to the queue. Lines with priority of {@link Priority#ERROR} or higher go to
+     * the urgent lane and are sent before the rest of queued messages.
+     *
+     * @param line     the log line.
+     * @param priority priority of the line, one of {@link Priority} constants.
+     */
+    public void addLineToQueue(String line, int priority) {
+
+        // Check that we have all parameters set and socket appender running.
+        if (!this.started) {
+
+            appender.start();
+            started = true;
+        }
+
+        if (line.length() > LOG_LENGTH_LIMIT) {
+            for (String logChunk : Utils.splitStringToChunks(line, LOG_LENGTH_LIMIT)) {
+                tryOfferToQueue(new LogEvent(logChunk), priority >= URGENT_PRIORITY);
+            }
+
+        } else {
+            tryOfferToQueue(new LogEvent(line), priority >= URGENT_PRIORITY);
+        }
+    }
+
+    /**
+     * Queues a structured message. The message is rendered on the socket appender thread;
+     * messages of {@link Priority#ERROR} or higher priority go to the urgent queue.
+     */
+    public void addMessageToQueue(StructuredMessage message) {
+        if (!this.started) {
+
+            appender.start();
+            started = true;
+        }
+
+        tryOfferToQueue(LogEvent.ofStructured(message), message.getPriority() >= URGENT_PRIORITY);
+    }
+
+    /**
+     * Adds several lines to the queue as a single unit - they take one queue slot and are
+     * sent together.
+     *
+     * @param lines the log lines.
+     */
+    public void addLinesToQueue(Iterable<? extends CharSequence> lines) {
+        if (!this.started) {
+
+            appender.start();
+            started = true;
+        }
+
+        List<String> eventLines = new ArrayList<String>();
+        for (CharSequence line : lines) {
+            String text = line.toString();
+            if (text.length() > LOG_LENGTH_LIMIT) {
+                Collections.addAll(eventLines, Utils.splitStringToChunks(text, LOG_LENGTH_LIMIT));
+            } else {
+                eventLines.add(text);
+            }
+        }
+        if (!eventLines.isEmpty()) {
+            tryOfferToQueue(LogEvent.ofLines(eventLines), false);
+        }
+    }
+
+    /**
+     * Adds '\n'-separated UTF-8 encoded lines to the queue as a single unit. The bytes are
+     * not decoded - they go to the wire as they are, except for the HTTP POST mode. Lines are
+     * not split to LOG_LENGTH_LIMIT chunks.
+     *
+     * @param utf8Lines the lines, from the buffer's position to its limit. The buffer's position
+     *                  is not changed, but its content must not be modified after the call.
+     */
+    public void addUtf8LinesToQueue(ByteBuffer utf8Lines) {
+        if (!this.started) {
+
+            appender.start();
+            started = true;
+        }
+
+        if (utf8Lines.hasRemaining()) {
+            tryOfferToQueue(LogEvent.ofUtf8Lines(utf8Lines), false);
+        }
+    }
+
+    /**
+     * Stops the socket appender. queueFlushTimeout (if greater than 0) sets the maximum timeout in milliseconds for
+     * the queued messages to be sent by the socket appender - including the batch it is lingering on - before
+     * it is stopped. If queueFlushTimeout is equal to zero - the method will wait until everything has been
+     * sent (which may be dangerous if the queue is constantly populated by another thread mantime.
+     *
+     * @param queueFlushTimeout - max. wait time in milliseconds for the queued messages to be sent.
+     */
+    public void close(long queueFlushTimeout) {
+        if (queueFlushTimeout < 0) {
+            throw new IllegalArgumentException("queueFlushTimeout must be greater or equal to zero");
+        }
+
+        // Send what has been aggregated so far along with the rest of the queue.
+        flushMetrics();
+
+        long deadline = System.currentTimeMillis() + queueFlushTimeout;
+
+        synchronized (flushLock) {
+            flushRequested = true;
+            flushed = false;
+        }
+        // The appender may be waiting for messages - it has to report back even if there are none.
+        queue.wakeUp();
+
+        synchronized (flushLock) {
+            while (!flushed && !appenderStopped) {
+                long remaining = 0;
+                if (queueFlushTimeout != 0) {
+                    remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        // The timeout expired - need to stop the appender.
+                        break;
+                    }
+                }
+                try {
+                    flushLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (crashHandler != null) {
+            crashHandler.uninstall();
+        }
+        appender.interrupt();
+        started = false;
+    }
+
+    public void close() {
+        close(0);
+    }
+
+    private static LoggerConfig buildConfig(boolean useSsl, boolean useHttpPost, boolean useDataHub, String logToken,
+                                            String dataHubAddress, int dataHubPort, boolean logHostName) {
+        LoggerConfig.Builder builder = new LoggerConfig.Builder(logToken)
+                .useSsl(useSsl)
+                .useHttpPost(useHttpPost)
+                .logHostName(logHostName);
+        if (useDataHub) {
+            builder.useDataHub(dataHubAddress, dataHubPort);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Queues the summary of the metrics aggregated since the previous flush, if there is anything to report.
+     */
+    private void flushMetrics() {
+        if (!metricRegistry.hasPendingData()) {
+            return;
+        }
+
+        Map<String, String> values = metricRegistry.flush(System.currentTimeMillis());
+        if (values.isEmpty()) {
+            return;
+        }
+        try {
+            tryOfferToQueue(LogEvent.ofStructured(new StructuredMessage(Priority.INFO, METRICS_TAG, "Metrics summary",
+                    null, values)), false);
+        } catch (RuntimeException ex) {
+            InternalLog.e(TAG, "Cannot queue the metrics summary! Error: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Takes the next event waiting in the queue, urgent ones first - used by the crash handler.
+     */
+    LogEvent pollPending() {
+        return queue.poll();
+    }
+
+    GapTracker getGapTracker() {
+        return gaps;
+    }
+
+    LogEvent stamp(LogEvent event) {
+        event.stamp(sessionId, nextSequence.getAndIncrement());
+        return event;
+    }
+
+    private static boolean checkTokenFormat(String token) {
+
+        return Utils.checkValidUUID(token);
+    }
+
+    private void tryOfferToQueue(LogEvent event, boolean urgent) throws RuntimeException {
+        if (profiler != null) {
+            profiler.record(event);
+        }
+        stamp(event);
+
+        LogJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                journal.append(event);
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot write the log message to the journal! Error: " + ex.getMessage());
+            }
+        } else if (usingJournal) {
+            event.setAwaitingJournal(true);
+        }
+
+        if (!queue.offer(event, urgent)) {
+            InternalLog.e(TAG, "The queue is full - will try to drop the oldest message in it.");
+            /*
+            FIXME: This code migrated from LE Java Library; currently, there is no a simple
+            way to backup the queue in case of overflow due to requirements to max.
+            memory consumption and max. possible size of the local logs storage. If use
+            the local storage - the we have three problems: 1) Correct joining of logs from
+            the queue and from the local storage (and we need some right event to trigger this joining);
+            2) Correct order of logs after joining; 3) Data consistence problem, because we're
+            accessing the storage from different threads, so sync. logic will increase overall
+            complexity of the code. So, for now this logic is left AS IS, due to relatively
+            rareness of the case with queue overflow.
+             */
+
+            // The dropped message won't be sent at all, so it shouldn't be re-sent from the
+            // journal either.
+            LogEvent dropped = queue.pollOldest(urgent);
+            if (dropped != null) {
+                dropped.acknowledge();
+                gaps.onLost(GapTracker.QUEUE_OVERFLOW, dropped);
+                if (profiler != null) {
+                    profiler.recordDrop(dropped);
+                }
+            }
+            if (!queue.offer(event, urgent)) {
+                event.acknowledge();
+                gaps.onLost(GapTracker.QUEUE_OVERFLOW, event);
+                if (profiler != null) {
+                    profiler.recordDrop(event);
+                }
+                throw new RuntimeException(QUEUE_OVERFLOW);
+            }
+        }
+
+        if (isMemoryBudgetLowered() && !spillRequested && queue.size() > memoryBudget) {
+            spillRequested = true;
+            queue.wakeUp();
+        }
+    }
+
+    private class SocketAppender extends Thread {
+
+        private static final long WAIT_FOREVER = -1;
+
+        // Formatting constants
+        private static final String LINE_SEP_REPLACER = "\u2028";
+
+        private LogentriesClient leClient;
+
+        private boolean useHttpPost;
+        private boolean useSsl;
+        private boolean isUsingDataHub;
+        private String dataHubAddr;
+        private int dataHubPort;
+        private String token;
+        private boolean logHostName = true;
+        private boolean sendRawLogMessage = false;
+        private boolean useUdp;
+        private int maxDatagramSize;
+
+        // Batching parameters.
+        private long lingerMs;
+        private int maxBatchBytes;
+        private int maxBatchEvents;
+        private boolean adaptiveBatching;
+
+        /**
+         * Connections idle for this long are closed; 0 - never.
+         */
+        private long idleTimeoutMs;
+
+        /**
+         * Formats and encodes the batches in parallel if encoder threads are configured.
+         */
+        private BatchEncoder encoder = null;
+        private int encoderThreads;
+
+        /**
+         * Journal sync settings (journal mode only).
+         */
+        private long journalSyncIntervalMs;
+        private int journalSyncBatchSize;
+
+        /**
+         * Whether the connection is currently open, and the time of the last write to it.
+         */
+        private boolean connected = false;
+        private long lastWriteTime = 0;
+
+        /**
+         * Indicates that the server has been unreachable and the logs are going to the local storage.
+         */
+        private boolean connectionIsBroken = false;
+
+        /**
+         * Current batch size limit in the adaptive batching mode.
+         */
+        private int adaptiveBatchEvents = 1;
+
+        /**
+         * Message that has been taken from the queue, but did not fit into the previous batch.
+         */
+        private LogEvent carryOver = null;
+
+        /**
+         * Events saved by the crash handler of the previous session - sent before anything else.
+         */
+        private Queue<LogEvent> crashLogs = new ArrayDeque<LogEvent>();
+
+        /**
+         * The last of the crash events - the crash logs are removed from the storage once it has
+         * been delivered (or saved to the storage file), as the events are sent in order.
+         */
+        private LogEvent lastCrashLog = null;
+
+        /**
+         * Journal segments of the previous sessions which still have events to be re-sent.
+         */
+        private List<LogJournal> previousJournals = new ArrayList<LogJournal>();
+
+        /**
+         * Indicates that some events have been spilled to the local storage because of memory pressure
+         * and need to be loaded back once the pressure is over.
+         */
+        private boolean hasSpilledLogs = false;
+
+        /**
+         * Weighted round between the live traffic and the backlog.
+         */
+        private final WeightedScheduler scheduler = new WeightedScheduler(LIVE_TRAFFIC_WEIGHT, BACKLOG_WEIGHT);
+
+        /**
+         * Time before which no more gap records are published.
+         */
+        private long nextGapReportTime = 0;
+
+        /**
+         * Number of lines rejected by the server which have already been recorded as lost.
+         */
+        private long rejectedLines = 0;
+
+        public SocketAppender(LoggerConfig config, boolean sendRawLogMessage) {
+            super("Logentries Socket appender");
+
+            // Don't block shut down
+            setDaemon(true);
+
+            this.useHttpPost = config.isUsingHttpPost();
+            this.useSsl = config.isUsingSsl();
+            this.isUsingDataHub = config.isUsingDataHub();
+            this.dataHubAddr = config.getDataHubAddress();
+            this.dataHubPort = config.getDataHubPort();
+            this.token = config.getToken();
+            this.logHostName = config.isLoggingHostName();
+            this.sendRawLogMessage = sendRawLogMessage;
+            this.useUdp = config.isUsingUdp();
+            this.maxDatagramSize = config.getMaxDatagramSize();
+            this.lingerMs = config.getLingerMs();
+            this.maxBatchBytes = config.getMaxBatchBytes();
+            this.maxBatchEvents = config.getMaxBatchEvents();
+            this.adaptiveBatching = config.isAdaptiveBatching();
+            this.idleTimeoutMs = config.getIdleTimeoutMs();
+            this.encoderThreads = config.getEncoderThreads();
+            this.journalSyncIntervalMs = config.getJournalSyncIntervalMs();
+            this.journalSyncBatchSize = config.getJournalSyncBatchSize();
+        }
+
+        private void openConnection() throws IOException, InstantiationException {
+            if (leClient == null) {
+                leClient = new LogentriesClient(useHttpPost, useSsl, isUsingDataHub, useUdp, dataHubAddr, dataHubPort,
+                        token, maxDatagramSize, metrics.getTransportStats(),
+                        useHttpPost ? platform.newHttpTransport() : null);
+            }
+
+            leClient.connect();
+            connected = true;
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        private boolean reopenConnection(int maxReConnectAttempts) throws InterruptedException, InstantiationException {
+            if (maxReConnectAttempts < 0) {
+                throw new IllegalArgumentException("maxReConnectAttempts value must be greater or equal to zero");
+            }
+
+            // Close the previous connection
+            closeConnection();
+
+            for (int attempt = 0; attempt < maxReConnectAttempts; ++attempt) {
+                try {
+
+                    openConnection();
+                    return true;
+
+                } catch (IOException e) {
+                    // Ignore the exception and go for the next
+                    // iteration.
+                }
+
+                Thread.sleep(RECONNECT_WAIT);
+            }
+
+            return false;
+        }
+
+
+        private void closeConnection() {
+            if (this.leClient != null) {
+                this.leClient.close();
+            }
+            connected = false;
+        }
+
+        private boolean tryUploadSavedLogs() {
+            Queue<String> logs = new ArrayDeque<String>();
+
+            try {
+
+                logs = localStorage.getAllLogsFromStorage(false);
+                for (String msg = logs.peek(); msg != null; msg = logs.peek()) {
+                    LogEvent event = LogStorage.toEvent(msg);
+                    String message = event.getMessage().replace("\n", LINE_SEP_REPLACER);
+                    if(sendRawLogMessage){
+                        leClient.write(Utils.formatMessage(message, logHostName, useHttpPost, event.getSessionId(),
+                                event.getSequence()));
+                    }else if (event.isStamped()) {
+                        leClient.write(Utils.getFormattedSequence(event.getSessionId(), event.getSequence(), false) +
+                                " " + message);
+                    }else{
+                        leClient.write(message);
+                    }
+                    logs.poll(); // Remove the message after successful sending.
+                }
+
+                // All logs have been uploaded - remove the storage file and create the blank one.
+                try {
+                    localStorage.reCreateStorageFile();
+                } catch (IOException ex) {
+                    InternalLog.e(TAG, ex.getMessage());
+                }
+
+                return true;
+
+            } catch (IOException ioEx) {
+                InternalLog.e(TAG, "Cannot upload logs to the server. Error: " + ioEx.getMessage());
+
+                // Try to save back all messages, that haven't been sent yet.
+                try {
+                    localStorage.reCreateStorageFile();
+                    for (String msg = logs.peek(); msg != null; msg = logs.peek()) {
+                        localStorage.putLogToStorage(msg);
+                        logs.poll();
+                    }
+                } catch (IOException ioEx2) {
+                    InternalLog.e(TAG, "Cannot save logs to the local storage - part of messages will be " +
+                            "dropped! Error: " + ioEx2.getMessage());
+                    for (String msg : logs) {
+                        gaps.onLost(GapTracker.STORAGE_WRITE_FAILED, LogStorage.toEvent(msg));
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Picks the next message to be sent. Urgent messages always go first; the logs saved during
+         * the previous session are interleaved with the live traffic using weighted round-robin,
+         * so neither of them is starved by the other.
+         *
+         * @param waitMillis max. time to wait for a message if there is nothing to send; 0 - don't wait,
+         *                   WAIT_FOREVER - wait until a message arrives.
+         */
+        private LogEvent nextMessage(Queue<LogEvent> prevSavedLogs, long waitMillis) throws InterruptedException {
+            LogEvent message = carryOver;
+            if (message != null) {
+                carryOver = null;
+                return message;
+            }
+
+            message = crashLogs.poll();
+            if (message != null) {
+                return message;
+            }
+
+            message = queue.pollUrgent();
+            if (message != null) {
+                return journaled(message);
+            }
+
+            if (prevSavedLogs.isEmpty()) {
+                // Take data from the queue if there are no logs from the local storage left to send.
+                if (waitMillis == WAIT_FOREVER) {
+                    return journaled(queue.take());
+                }
+                return journaled(waitMillis > 0 ? queue.poll(waitMillis, TimeUnit.MILLISECONDS) : queue.poll());
+            }
+
+            if (scheduler.nextIsLive()) {
+                message = queue.poll();
+                if (message != null) {
+                    return journaled(message);
+                }
+            }
+
+            // Getting messages from the previous session one by one.
+            return prevSavedLogs.poll();
+        }
+
+        /**
+         * Returns how long the appender may sleep waiting for new messages. With a healthy connection
+         * and nothing pending, it sleeps until either a message arrives, the connection becomes idle
+         * or the spilled logs can be loaded back - there are no periodic wake-ups.
+         */
+        private long idleWaitTime() {
+            if (connectionIsBroken) {
+                // Keep trying to re-establish the connection and upload the saved logs.
+                return BROKEN_CONNECTION_POLL_TIME;
+            }
+
+            long now = System.currentTimeMillis();
+            long wait = WAIT_FOREVER;
+            if (connected && idleTimeoutMs > 0) {
+                wait = Math.max(1, lastWriteTime + idleTimeoutMs - now);
+            }
+            if (hasSpilledLogs) {
+                long untilRestore = Math.max(1, memoryBudgetRestoreTime - now + 1);
+                wait = wait == WAIT_FOREVER ? untilRestore : Math.min(wait, untilRestore);
+            }
+            if (!gaps.isEmpty()) {
+                long untilGapReport = Math.max(1, nextGapReportTime - now);
+                wait = wait == WAIT_FOREVER ? untilGapReport : Math.min(wait, untilGapReport);
+            }
+            if (metricRegistry.hasPendingData()) {
+                long untilFlush = Math.max(1, metricRegistry.getNextFlushTime() - now);
+                wait = wait == WAIT_FOREVER ? untilFlush : Math.min(wait, untilFlush);
+            }
+            if (profiler != null && profiler.hasData()) {
+                long untilReport = Math.max(1, profiler.getNextReportTime() - now);
+                wait = wait == WAIT_FOREVER ? untilReport : Math.min(wait, untilReport);
+            }
+            return wait;
+        }
+
+        /**
+         * Collects the next batch of messages: waits for the first one, then takes whatever is
+         * available, lingering up to lingerMs for more, until the batch size limits are reached.
+         */
+        private void collectBatch(Queue<LogEvent> prevSavedLogs, List<LogEvent> batch, long waitMillis)
+                throws InterruptedException {
+            LogEvent message = nextMessage(prevSavedLogs, waitMillis);
+            if (message == null) {
+                return;
+            }
+            batch.add(message);
+
+            int batchLimit = adaptiveBatching ? adaptiveBatchEvents : maxBatchEvents;
+            int batchBytes = message.getSize();
+            long lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+
+            while (batch.size() < batchLimit) {
+                message = nextMessage(prevSavedLogs, 0);
+                if (message == null) {
+                    long remaining = lingerDeadline - System.nanoTime();
+                    if (remaining <= 0 || flushRequested) {
+                        // Don't hold the batch back when the worker is being closed.
+                        break;
+                    }
+                    message = journaled(queue.poll(remaining, TimeUnit.NANOSECONDS));
+                    if (message == null) {
+                        continue;
+                    }
+                }
+
+                int messageLength = message.getSize();
+                if (batchBytes + messageLength > maxBatchBytes) {
+                    carryOver = message;
+                    break;
+                }
+                batch.add(message);
+                batchBytes += messageLength;
+            }
+
+            if (adaptiveBatching) {
+                if (batch.size() >= adaptiveBatchEvents && !queue.isEmpty()) {
+                    // The queue keeps growing - send bigger batches.
+                    adaptiveBatchEvents = Math.min(maxBatchEvents, adaptiveBatchEvents * 2);
+                } else if (batch.size() <= adaptiveBatchEvents / 2) {
+                    // The traffic is light - don't hold messages back.
+                    adaptiveBatchEvents = Math.max(1, adaptiveBatchEvents / 2);
+                }
+            }
+        }
+
+        /**
+         * Sends the batch. Pre-encoded UTF-8 lines go to the client as they are, prefixed with the
+         * metadata; everything else is formatted to strings first.
+         */
+        private void sendBatch(List<LogEvent> batch, List<String> formatted) throws IOException {
+            formatted.clear();
+            for (LogEvent event : batch) {
+                if (event.isUtf8() && !useHttpPost) {
+                    if (!formatted.isEmpty()) {
+                        this.leClient.write(formatted);
+                        formatted.clear();
+                    }
+                    byte[] metadata = Utils.formatMessage("", logHostName, false, event.getSessionId(),
+                            event.getSequence()).getBytes(UTF8);
+                    this.leClient.writeUtf8Lines(metadata, event.getUtf8Lines());
+                    continue;
+                }
+
+                for (String line : event.getLines()) {
+                    formatted.add(Utils.formatMessage(line.replace("\n", LINE_SEP_REPLACER), logHostName, useHttpPost,
+                            event.getSessionId(), event.getSequence()));
+                }
+            }
+            if (!formatted.isEmpty()) {
+                this.leClient.write(formatted);
+            }
+
+            for (LogEvent event : batch) {
+                acknowledge(event);
+            }
+        }
+
+        /**
+         * Acknowledges the event which has been delivered or saved to the storage file.
+         */
+        private void acknowledge(LogEvent event) {
+            event.acknowledge();
+            if (event == lastCrashLog) {
+                lastCrashLog = null;
+                localStorage.removeCrashLogs();
+            }
+        }
+
+        /**
+         * Removes the events whose lines have all been sent from the head of the batch after a
+         * failed send, acknowledging them. Returns true if any have been removed.
+         */
+        private boolean removeSentEvents(List<LogEvent> batch, long sentLines) {
+            int sent = 0;
+            while (sent < batch.size()) {
+                LogEvent event = batch.get(sent);
+                int lines = event.getLines().size();
+                if (lines > sentLines) {
+                    break;
+                }
+                sentLines -= lines;
+                acknowledge(event);
+                ++sent;
+            }
+            batch.subList(0, sent).clear();
+            return sent > 0;
+        }
+
+        /**
+         * Writes a batch which has already been formatted and encoded by the encoder threads.
+         */
+        private void sendEncoded(BatchEncoder.EncodedBatch encoded) throws IOException {
+            this.leClient.writeUtf8Lines(NO_PREFIX, encoded.getData());
+            for (LogEvent event : encoded.getEvents()) {
+                acknowledge(event);
+            }
+        }
+
+        /**
+         * Queues the gap records for the events lost since the previous call (at most once per
+         * GAP_REPORT_INTERVAL). They go to the urgent queue, so they are not dropped along with
+         * the regular events on overflow.
+         */
+        private void publishGaps() {
+            long droppedFromStorage = localStorage.takeDroppedEvents();
+            if (droppedFromStorage > 0) {
+                gaps.onLost(GapTracker.STORAGE_FULL, droppedFromStorage);
+            }
+            long rejected = metrics.getTransportStats().getRejectedLines();
+            if (rejected > rejectedLines) {
+                gaps.onLost(GapTracker.REJECTED_BY_SERVER, rejected - rejectedLines);
+                rejectedLines = rejected;
+            }
+
+            long now = System.currentTimeMillis();
+            if (gaps.isEmpty() || now < nextGapReportTime) {
+                return;
+            }
+            nextGapReportTime = now + GAP_REPORT_INTERVAL;
+
+            for (StructuredMessage record : gaps.takeRecords()) {
+                LogEvent event = stamp(LogEvent.ofStructured(record));
+                if (!queue.offer(event, true)) {
+                    // Reported along with the next gap records.
+                    InternalLog.e(TAG, "Cannot queue the gap record - the urgent queue is full.");
+                    gaps.onLost(GapTracker.QUEUE_OVERFLOW, event);
+                }
+            }
+        }
+
+        /**
+         * Hands the profiler's report over to the listener, or queues it as a log event of its own
+         * (bypassing the profiler and the journal).
+         */
+        private void reportSources() {
+            SourceProfiler.Report report = profiler.takeReport(System.currentTimeMillis());
+            if (report.getTotalEvents() == 0 && report.getDroppedEvents() == 0) {
+                return;
+            }
+
+            SourceProfiler.Listener listener = profilerListener;
+            if (listener != null) {
+                try {
+                    listener.onReport(report);
+                } catch (RuntimeException ex) {
+                    InternalLog.e(TAG, "Log sources profiler listener failed! Error: " + ex.getMessage());
+                }
+            } else {
+                LogEvent event = stamp(LogEvent.ofStructured(new StructuredMessage(Priority.INFO, PROFILER_TAG,
+                        report.toString(), null, null)));
+                if (!queue.offer(event, false)) {
+                    gaps.onLost(GapTracker.QUEUE_OVERFLOW, event);
+                }
+            }
+        }
+
+        /**
+         * Writes the event taken off the queue to the journal if it has been queued before the
+         * journal was opened.
+         */
+        private LogEvent journaled(LogEvent event) {
+            if (event != null && event.isAwaitingJournal()) {
+                event.setAwaitingJournal(false);
+                LogJournal current = journal;
+                if (current != null) {
+                    try {
+                        current.append(event);
+                    } catch (IOException ex) {
+                        InternalLog.e(TAG, "Cannot write the log message to the journal! Error: " + ex.getMessage());
+                    }
+                }
+            }
+            return event;
+        }
+
+        /**
+         * Opens the journal segment of the current session. The worker goes on without it if it
+         * cannot be created.
+         */
+        private void openJournal() {
+            try {
+                journal = LogJournal.createSegment(platform.getStorageDir(), sessionId, journalSyncIntervalMs,
+                        journalSyncBatchSize);
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot create the journal - logs will not be journaled. Error: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Loads the events of the previous sessions which have been written to the journal, but
+         * have not been delivered. The events the crash handler has saved to the crash file are
+         * acknowledged instead - they are sent from there.
+         */
+        private void recoverJournals(Queue<LogEvent> prevSavedLogs) {
+            Set<String> crashed = new HashSet<String>();
+            for (LogEvent crashLog : crashLogs) {
+                if (crashLog.isStamped()) {
+                    crashed.add(crashLog.getSessionId() + " " + crashLog.getSequence());
+                }
+            }
+
+            for (LogJournal previous : LogJournal.openPreviousSegments(platform.getStorageDir(), journal)) {
+                try {
+                    for (LogEvent event : previous.recover()) {
+                        if (event.isStamped() && crashed.contains(event.getSessionId() + " " + event.getSequence())) {
+                            event.acknowledge();
+                        } else {
+                            prevSavedLogs.add(event);
+                        }
+                    }
+                    previousJournals.add(previous);
+                } catch (IOException ex) {
+                    InternalLog.e(TAG, "Cannot recover logs from the journal: " + ex.getMessage());
+                    previous.close();
+                }
+            }
+        }
+
+        /**
+         * Group commit: the journal is synced once enough events have been appended or the sync
+         * interval has elapsed, and always when the queue has been drained. Segments of the previous
+         * sessions are removed once all their events have been delivered.
+         */
+        private void syncJournals() {
+            if (journal != null) {
+                try {
+                    if (queue.isEmpty()) {
+                        journal.sync();
+                    } else {
+                        journal.syncIfDue();
+                    }
+                } catch (IOException ex) {
+                    InternalLog.e(TAG, "Cannot sync the journal! Error: " + ex.getMessage());
+                }
+            }
+
+            for (int i = previousJournals.size() - 1; i >= 0; --i) {
+                LogJournal previous = previousJournals.get(i);
+                if (previous.isFullyAcknowledged()) {
+                    previous.close();
+                    previousJournals.remove(i);
+                }
+            }
+        }
+
+        /**
+         * Performs the memory pressure actions requested by {@link #onMemoryPressure(int)}, and loads
+         * the spilled events back once the pressure is over.
+         */
+        private void handleMemoryPressure(Queue<LogEvent> prevSavedLogs, List<LogEvent> batch,
+                                          ArrayList<String> formatted) {
+            if (bufferReleaseRequested) {
+                bufferReleaseRequested = false;
+                if (leClient != null) {
+                    leClient.releaseBuffers();
+                }
+                formatted.trimToSize();
+                metrics.onBufferRelease();
+            }
+
+            if (spillRequested) {
+                spillRequested = false;
+                spillToStorage(prevSavedLogs, batch);
+            }
+
+            if (hasSpilledLogs && queue.isEmpty() && !isMemoryBudgetLowered()) {
+                hasSpilledLogs = false;
+                prevSavedLogs.addAll(toEvents(localStorage.getAllLogsFromStorage(true)));
+            }
+        }
+
+        /**
+         * Moves the backlog and the oldest regular events above the memory budget to the local storage.
+         * The urgent events and the current batch stay in memory.
+         */
+        private void spillToStorage(Queue<LogEvent> prevSavedLogs, List<LogEvent> batch) {
+            if (carryOver != null) {
+                batch.add(carryOver);
+                carryOver = null;
+            }
+
+            List<LogEvent> spilled = new ArrayList<LogEvent>(prevSavedLogs);
+            prevSavedLogs.clear();
+            while (queue.size() > memoryBudget) {
+                LogEvent event = queue.pollOldest(false);
+                if (event == null) {
+                    break; // Only urgent events left.
+                }
+                spilled.add(event);
+            }
+            if (spilled.isEmpty()) {
+                return;
+            }
+
+            try {
+                localStorage.putLogsToStorage(spilled);
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot spill the logs queue to the local storage! Error: " + ex.getMessage());
+                prevSavedLogs.addAll(spilled); // Keep them in memory.
+                return;
+            }
+            for (LogEvent event : spilled) {
+                event.acknowledge();
+            }
+            hasSpilledLogs = true;
+            metrics.onSpill(spilled.size());
+        }
+
+        private Queue<LogEvent> toEvents(Queue<String> logs) {
+            Queue<LogEvent> events = new ArrayDeque<LogEvent>();
+            for (String log : logs) {
+                events.add(LogStorage.toEvent(log));
+            }
+            return events;
+        }
+
+        private void closeJournals() {
+            if (journal != null) {
+                journal.close();
+            }
+            for (LogJournal previous : previousJournals) {
+                previous.close();
+            }
+            previousJournals.clear();
+        }
+
+        @Override
+        public void run() {
+            List<LogEvent> batch = new ArrayList<LogEvent>();
+            Queue<LogEvent> prevSavedLogs = new ArrayDeque<LogEvent>();
+
+            try {
+
+                // Open the journal first - the events queued until then are journaled only when
+                // they are taken off the queue.
+                if (usingJournal) {
+                    openJournal();
+                }
+
+                // Initialize the local storage and device metadata here rather than in the
+                // worker's constructor to keep them off the caller's thread.
+                localStorage = new LogStorage(platform.getStorageDir());
+                Utils.initMetadata();
+
+                // The connection is not opened until there is something to send.
+
+                crashLogs = toEvents(localStorage.takeCrashLogs());
+                for (LogEvent crashLog : crashLogs) {
+                    lastCrashLog = crashLog;
+                }
+                if (crashHandler != null) {
+                    try {
+                        crashHandler.prepare(localStorage.openCrashFile());
+                    } catch (IOException ex) {
+                        InternalLog.e(TAG, "Cannot open the crash file - crashes will not be saved. Error: " + ex.getMessage());
+                    }
+                }
+                prevSavedLogs.addAll(toEvents(localStorage.getAllLogsFromStorage(true)));
+                if (usingJournal) {
+                    recoverJournals(prevSavedLogs);
+                }
+
+                if (encoderThreads > 0) {
+                    encoder = new BatchEncoder(encoderThreads, logHostName, useHttpPost, metrics, gaps);
+                }
+
+                int numFailures = 0;
+                ArrayList<String> formatted = new ArrayList<String>();
+
+                // Send data in queue
+                while (true) {
+
+                    // The request is checked first - everything queued before it must be seen as well.
+                    if (flushRequested && queue.isEmpty() && batch.isEmpty() && carryOver == null &&
+                            (encoder == null || !encoder.hasPending())) {
+                        reportFlushed();
+                    }
+
+                    // Don't sleep while there are batches being encoded - they need to be sent.
+                    boolean encoding = encoder != null && encoder.hasPending();
+                    collectBatch(prevSavedLogs, batch, encoding ? 0 : idleWaitTime());
+                    handleMemoryPressure(prevSavedLogs, batch, formatted);
+                    if (profiler != null && profiler.isReportDue(System.currentTimeMillis())) {
+                        reportSources();
+                    }
+                    if (metricRegistry.isFlushDue(System.currentTimeMillis())) {
+                        flushMetrics();
+                    }
+                    publishGaps();
+                    if (usingJournal) {
+                        syncJournals();
+                    }
+
+                    // Don't keep the connection open if nothing has been sent for idleTimeoutMs -
+                    // it may be silently dropped by the carrier's NAT anyway. The next write
+                    // will open a fresh one.
+                    if (connected && idleTimeoutMs > 0 && System.currentTimeMillis() - lastWriteTime >= idleTimeoutMs) {
+                        closeConnection();
+                    }
+
+                    // Hand the batch over to the encoder threads and take the next encoded one
+                    // in order - without waiting for it unless the encoders are busy enough.
+                    BatchEncoder.EncodedBatch encoded = null;
+                    if (encoder != null) {
+                        boolean collected = !batch.isEmpty();
+                        if (collected) {
+                            encoder.submit(batch);
+                            batch.clear();
+                        }
+                        encoded = collected && !encoder.isFull() ? encoder.poll() : encoder.take();
+                        if (encoded != null) {
+                            batch.addAll(encoded.getEvents());
+                        }
+                    }
+
+                    if (batch.isEmpty() && !connectionIsBroken) {
+                        continue;
+                    }
+
+                    // Send data, reconnect if needed.
+                    while (true) {
+
+                        try {
+
+                            // If we have broken connection, then try to re-connect and send
+                            // all logs from the local storage. If succeeded - reset numFailures.
+                            if (connectionIsBroken && reopenConnection(MAX_RECONNECT_ATTEMPTS)) {
+                                if (tryUploadSavedLogs()) {
+                                    connectionIsBroken = false;
+                                    numFailures = 0;
+                                }
+                            }
+
+                            if (!batch.isEmpty()) {
+                                if (!connected) {
+                                    openConnection();
+                                }
+                                long sendStart = System.nanoTime();
+                                long sentLines = leClient.getSentLines();
+                                try {
+                                    if (encoded != null) {
+                                        sendEncoded(encoded);
+                                    } else {
+                                        sendBatch(batch, formatted);
+                                    }
+                                } catch (IOException ex) {
+                                    // Only what has not gone out is retried - e.g. UDP sends the batch
+                                    // datagram by datagram.
+                                    if (removeSentEvents(batch, leClient.getSentLines() - sentLines)) {
+                                        encoded = null;
+                                    }
+                                    throw ex;
+                                }
+                                metrics.onBatchSent(System.nanoTime() - sendStart);
+                                batch.clear();
+                                lastWriteTime = System.currentTimeMillis();
+                            }
+
+                        } catch (IOException e) {
+
+                            if (numFailures >= MAX_NETWORK_FAILURES_ALLOWED) {
+                                connectionIsBroken = true; // Have tried to reconnect for MAX_NETWORK_FAILURES_ALLOWED
+                                // times and failed, so assume, that we have no link to the
+                                // server at all...
+                                try {
+                                    // ... and put the current batch to the local storage.
+                                    localStorage.putLogsToStorage(batch);
+                                    for (LogEvent event : batch) {
+                                        acknowledge(event);
+                                    }
+                                    batch.clear();
+                                } catch (IOException ex) {
+                                    InternalLog.e(TAG, "Cannot save the log message to the local storage! Error: " +
+                                            ex.getMessage());
+                                } finally {
+                                    // Whatever is left is formatted again when it is re-sent.
+                                    encoded = null;
+                                }
+
+                            } else {
+                                ++numFailures;
+
+                                // Try to re-open the lost connection.
+                                reopenConnection(MAX_RECONNECT_ATTEMPTS);
+                            }
+
+                            continue;
+                        }
+
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // We got interrupted, stop - keeping whatever has not been sent yet.
+                storePending(batch, prevSavedLogs);
+
+            } catch (IOException e) {
+                InternalLog.e(TAG, "Cannot create the local logs storage. Error: " + e.getMessage());
+
+            } catch (InstantiationException e) {
+                InternalLog.e(TAG, "Cannot instantiate LogentriesClient due to improper configuration. Error: " + e.getMessage());
+
+                // Save all existing logs to the local storage.
+                // There is nothing we can do else in this case.
+                storePending(batch, prevSavedLogs);
+            }
+
+            if (encoder != null) {
+                encoder.shutdown();
+            }
+            closeConnection();
+            closeJournals();
+            synchronized (flushLock) {
+                appenderStopped = true;
+                flushLock.notifyAll();
+            }
+        }
+
+        /**
+         * Saves everything that has not been sent to the local storage when the appender stops:
+         * the crash logs, the current batch, the batches being encoded, the queue and the backlog
+         * loaded from the local storage. The journaled backlog is left out - it is re-sent from the
+         * journal after a restart. The gap records, which can't be sent either, are saved as well.
+         */
+        private void storePending(List<LogEvent> batch, Queue<LogEvent> prevSavedLogs) {
+            List<LogEvent> pending = new ArrayList<LogEvent>(crashLogs);
+            crashLogs.clear();
+            pending.addAll(batch);
+            batch.clear();
+            if (carryOver != null) {
+                pending.add(carryOver);
+                carryOver = null;
+            }
+            if (encoder != null) {
+                pending.addAll(encoder.shutdown());
+            }
+            for (LogEvent event = queue.poll(); event != null; event = queue.poll()) {
+                pending.add(event);
+            }
+            for (LogEvent event : prevSavedLogs) {
+                if (!event.isJournaled()) {
+                    pending.add(event);
+                }
+            }
+            prevSavedLogs.clear();
+
+            try {
+                localStorage.putLogsToStorage(pending);
+                for (LogEvent event : pending) {
+                    acknowledge(event);
+                }
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot save logs queue to the local storage - all log messages will be dropped! Error: " +
+                        ex.getMessage());
+                // Journaled events are re-sent from the journal after a restart.
+                for (LogEvent lost : pending) {
+                    if (!lost.isJournaled()) {
+                        gaps.onLost(GapTracker.STORAGE_WRITE_FAILED, lost);
+                    }
+                }
+            }
+
+            try {
+                List<LogEvent> records = new ArrayList<LogEvent>();
+                for (StructuredMessage record : gaps.takeRecords()) {
+                    records.add(stamp(LogEvent.ofStructured(record)));
+                }
+                localStorage.putLogsToStorage(records);
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot save the gap records to the local storage! Error: " + ex.getMessage());
+            }
+        }
+
+        /**
+         * Lets {@link #close(long)} know that everything queued so far has been sent (or stored).
+         */
+        private void reportFlushed() {
+            synchronized (flushLock) {
+                flushed = true;
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+
+}
@@ -0,0 +1,270 @@
+package com.logentries.logger;
+
+import com.logentries.misc.InternalLog;
+import com.logentries.misc.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Formats and UTF-8 encodes batches of log events on a small pool of threads, so the socket
+ * appender is left with the network writes only. Encoded batches are handed back in the order
+ * they have been submitted, whichever thread finishes first.
+ */
+public class BatchEncoder {
+
+    private static final String TAG = "LogentriesAndroidLogger";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Formatted messages must not contain newlines - they are replaced with the Unicode line separator.
+    private static final String LINE_SEP_REPLACER = "\u2028";
+
+    /**
+     * Max. number of batches being encoded (or waiting to be sent) per encoder thread.
+     */
+    private static final int MAX_PENDING_PER_THREAD = 2;
+
+    /**
+     * A batch of events encoded as '\n'-separated UTF-8 lines, ready to be written.
+     */
+    public static class EncodedBatch {
+
+        private final List<LogEvent> events;
+        private final byte[] data;
+        private final int length;
+
+        EncodedBatch(List<LogEvent> events, byte[] data, int length) {
+            this.events = events;
+            this.data = data;
+            this.length = length;
+        }
+
+        public List<LogEvent> getEvents() {
+            return events;
+        }
+
+        public ByteBuffer getData() {
+            return ByteBuffer.wrap(data, 0, length);
+        }
+    }
+
+    private final boolean logHostName;
+    private final boolean useHttpPost;
+    private final LoggerMetrics metrics;
+    private final GapTracker gaps;
+
+    private final ExecutorService executor;
+
+    /**
+     * Batches in the order of submission - the head is always the next one to be sent.
+     */
+    private final ArrayDeque<Future<EncodedBatch>> pending = new ArrayDeque<Future<EncodedBatch>>();
+    private final ArrayDeque<List<LogEvent>> pendingEvents = new ArrayDeque<List<LogEvent>>();
+    private final int maxPending;
+
+    public BatchEncoder(int threads, boolean logHostName, boolean useHttpPost, LoggerMetrics metrics,
+                        GapTracker gaps) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be greater than zero");
+        }
+
+        this.logHostName = logHostName;
+        this.useHttpPost = useHttpPost;
+        this.metrics = metrics;
+        this.gaps = gaps;
+        this.maxPending = threads * MAX_PENDING_PER_THREAD;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Logentries encoder #" + threadCount.incrementAndGet());
+                // Don't block shut down
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a copy of the batch for encoding.
+     */
+    public void submit(List<LogEvent> batch) {
+        final List<LogEvent> events = new ArrayList<LogEvent>(batch);
+        pendingEvents.add(events);
+        pending.add(executor.submit(new Callable<EncodedBatch>() {
+            @Override
+            public EncodedBatch call() {
+                return encode(events);
+            }
+        }));
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Returns true if no more batches should be submitted before the next one is taken.
+     */
+    public boolean isFull() {
+        return pending.size() >= maxPending;
+    }
+
+    /**
+     * Returns the next batch in order if it has already been encoded, or null otherwise.
+     */
+    public EncodedBatch poll() throws InterruptedException {
+        Future<EncodedBatch> head = pending.peek();
+        if (head == null || !head.isDone()) {
+            return null;
+        }
+        return take();
+    }
+
+    /**
+     * Returns the next batch in order, waiting for it to be encoded if needed; null if
+     * nothing has been submitted.
+     */
+    public EncodedBatch take() throws InterruptedException {
+        Future<EncodedBatch> head = pending.poll();
+        if (head == null) {
+            return null;
+        }
+        List<LogEvent> events = pendingEvents.poll();
+
+        long start = System.nanoTime();
+        try {
+            return head.get();
+        } catch (ExecutionException e) {
+            // Should not happen - formatting doesn't throw. Send nothing rather than lose the order.
+            InternalLog.e(TAG, "Cannot encode the batch of log messages - they will be dropped! Error: " +
+                    e.getCause());
+            for (LogEvent event : events) {
+                gaps.onLost(GapTracker.ENCODING_FAILED, event);
+                event.acknowledge();
+            }
+            return new EncodedBatch(new ArrayList<LogEvent>(), new byte[0], 0);
+        } finally {
+            metrics.onSequencerWait(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stops the encoder threads and returns the events of the batches which have not been taken yet.
+     */
+    public List<LogEvent> shutdown() {
+        executor.shutdownNow();
+
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        for (List<LogEvent> batch : pendingEvents) {
+            events.addAll(batch);
+        }
+        pending.clear();
+        pendingEvents.clear();
+        return events;
+    }
+
+    private EncodedBatch encode(List<LogEvent> events) {
+        long start = System.nanoTime();
+
+        int estimatedSize = 0;
+        for (LogEvent event : events) {
+            estimatedSize += event.getSize() + 128;
+        }
+        ByteSink out = new ByteSink(estimatedSize);
+
+        for (LogEvent event : events) {
+            if (event.isUtf8() && !useHttpPost) {
+                byte[] metadata = Utils.formatMessage("", logHostName, false, event.getSessionId(),
+                        event.getSequence()).getBytes(UTF8);
+                appendUtf8Lines(out, metadata, event.getUtf8Lines());
+                continue;
+            }
+
+            for (String line : event.getLines()) {
+                byte[] bytes = Utils.formatMessage(line.replace("\n", LINE_SEP_REPLACER), logHostName, useHttpPost,
+                        event.getSessionId(), event.getSequence()).getBytes(UTF8);
+                out.write(bytes, 0, bytes.length);
+                out.write((byte) '\n');
+            }
+        }
+
+        // The batch takes over the array - it is not copied.
+        EncodedBatch encoded = new EncodedBatch(events, out.data, out.length);
+        metrics.onBatchEncoded(System.nanoTime() - start);
+        return encoded;
+    }
+
+    private static void appendUtf8Lines(ByteSink out, byte[] metadata, ByteBuffer lines) {
+        ByteBuffer source = lines.duplicate();
+        int start = lines.position();
+        int limit = lines.limit();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && lines.get(end) != '\n') {
+                ++end;
+            }
+            if (end > start) {
+                out.write(metadata, 0, metadata.length);
+                source.limit(end).position(start);
+                out.write(source);
+                out.write((byte) '\n');
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Growable byte array the batches are encoded into - unlike ByteArrayOutputStream, it is not
+     * synchronized and its array is handed over without being copied.
+     */
+    private static class ByteSink {
+
+        byte[] data;
+        int length = 0;
+
+        ByteSink(int capacity) {
+            data = new byte[Math.max(capacity, 64)];
+        }
+
+        void write(byte b) {
+            ensureCapacity(1);
+            data[length++] = b;
+        }
+
+        void write(byte[] bytes, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(bytes, offset, data, length, count);
+            length += count;
+        }
+
+        /**
+         * Copies the bytes from the buffer's position to its limit in bulk.
+         */
+        void write(ByteBuffer bytes) {
+            int count = bytes.remaining();
+            ensureCapacity(count);
+            bytes.get(data, length, count);
+            length += count;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.logentries.logger;
+
+import com.logentries.misc.InternalLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uncaught exception handler saving the crash and the events still waiting in the queue of the
+ * worker before the process dies. Everything the crash path needs - the buffer, the encoder and the
+ * open crash file - is set up in advance, so on a crash the events are only encoded into the buffer
+ * until the time budget runs out or the buffer gets full, and then written to the crash file in one
+ * sequential write, without a sync. The events left behind are recorded as lost (unless they are
+ * in the journal) and the gap records are saved after the events, in the space reserved for them.
+ * The exception is then passed on to the previous handler.
+ *
+ * <p>The crash file is replayed ahead of everything else by the next session
+ * (see {@link LogStorage#takeCrashLogs()}).</p>
+ */
+public class CrashHandler implements Thread.UncaughtExceptionHandler {
+
+    private static final String TAG = "LogentriesAndroidLogger";
+
+    /**
+     * Tag of the crash events.
+     */
+    public static final String CRASH_TAG = "LogentriesCrash";
+
+    /**
+     * Size of the buffer the crash data is collected in - the events that don't fit are lost.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Space at the end of the buffer kept for the gap records.
+     */
+    private static final int GAP_RECORDS_RESERVE = 4 * 1024;
+
+    private final AsyncLoggingWorker worker;
+    private final long budgetNanos;
+    private final Thread.UncaughtExceptionHandler previous;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final AtomicBoolean crashed = new AtomicBoolean(false);
+
+    private volatile FileChannel crashFile = null;
+    private volatile boolean closed = false;
+
+    CrashHandler(AsyncLoggingWorker worker, long budgetMs) {
+        this.worker = worker;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        this.previous = Thread.getDefaultUncaughtExceptionHandler();
+    }
+
+    /**
+     * Makes this handler the default uncaught exception handler.
+     */
+    void install() {
+        Thread.setDefaultUncaughtExceptionHandler(this);
+    }
+
+    /**
+     * Sets the crash file the data is written to. Until it is set, crashes are only passed on.
+     */
+    void prepare(FileChannel crashFile) {
+        this.crashFile = crashFile;
+        if (closed) {
+            // Uninstalled in the meantime.
+            uninstall();
+        }
+    }
+
+    /**
+     * Restores the previous handler - or, if another one has been installed on top of this one,
+     * only turns this one into a pass-through - and closes the crash file.
+     */
+    void uninstall() {
+        closed = true;
+        if (Thread.getDefaultUncaughtExceptionHandler() == this) {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+
+        FileChannel file = crashFile;
+        crashFile = null;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot close the crash file: " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void uncaughtException(Thread thread, Throwable e) {
+        try {
+            // Only the first crash is saved - the process is going down anyway.
+            if (!closed && crashed.compareAndSet(false, true)) {
+                saveCrash(thread, e);
+            }
+        } catch (Throwable t) {
+            // Whatever happens here must not prevent the previous handler from being called.
+            InternalLog.e(TAG, "Cannot save the crash: " + t.getMessage());
+        } finally {
+            if (previous != null) {
+                previous.uncaughtException(thread, e);
+            } else {
+                // What the thread group would do - it can't be called, as it would call this handler again.
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    private void saveCrash(Thread thread, Throwable e) throws IOException {
+        FileChannel file = crashFile;
+        if (file == null) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + budgetNanos;
+        buffer.clear();
+        buffer.limit(BUFFER_SIZE - GAP_RECORDS_RESERVE);
+
+        // The crash itself goes first, so it is saved even if nothing else fits.
+        LogEvent crash = worker.stamp(LogEvent.ofStructured(new StructuredMessage(Priority.ASSERT, CRASH_TAG,
+                "Uncaught exception in thread " + thread.getName(), e, null)));
+        encode(crash);
+
+        LogEvent event = worker.pollPending();
+        while (event != null && System.nanoTime() - deadline < 0 && encode(event)) {
+            event = worker.pollPending();
+        }
+
+        // The rest is lost - unless it is in the journal, which is replayed by the next session.
+        GapTracker gaps = worker.getGapTracker();
+        for (; event != null; event = worker.pollPending()) {
+            if (!event.isJournaled()) {
+                gaps.onLost(GapTracker.CRASH_BUDGET_EXCEEDED, event);
+            }
+        }
+        buffer.limit(BUFFER_SIZE);
+        for (StructuredMessage record : gaps.takeRecords()) {
+            if (!encode(worker.stamp(LogEvent.ofStructured(record)))) {
+                break;
+            }
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+    }
+
+    /**
+     * Appends the lines of the event to the buffer as they are kept in the local storage. Returns
+     * false, leaving the buffer as it was, if they don't fit.
+     */
+    private boolean encode(LogEvent event) {
+        int start = buffer.position();
+        List<String> lines = event.getLines();
+        for (String line : lines) {
+            encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(LogStorage.toStoredLine(event, line)), buffer, true);
+            if (result.isOverflow() || encoder.flush(buffer).isOverflow() || !buffer.hasRemaining()) {
+                buffer.position(start);
+                return false;
+            }
+            buffer.put((byte) '\n');
+        }
+        return true;
+    }
+}
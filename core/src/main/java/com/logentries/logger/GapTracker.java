@@ -0,0 +1,153 @@
+package com.logentries.logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the events lost at the drop points of the logger (queue overflow, local storage
+ * wipes, failed writes) and turns them into gap records - events of their own telling which
+ * sequence numbers of which session will never arrive, or at least how many events have been
+ * lost. Together with the sequence numbers of the received events they allow computing the
+ * delivery completeness from the received stream.
+ */
+public class GapTracker {
+
+    /**
+     * Tag of the gap records.
+     */
+    public static final String GAP_TAG = "LogentriesGap";
+
+    // Drop reasons.
+    public static final String QUEUE_OVERFLOW = "queue overflow";
+    public static final String STORAGE_FULL = "local storage full";
+    public static final String STORAGE_WRITE_FAILED = "local storage write failed";
+    public static final String ENCODING_FAILED = "encoding failed";
+    public static final String REJECTED_BY_SERVER = "rejected by the server";
+    public static final String CRASH_BUDGET_EXCEEDED = "crash flush budget exceeded";
+
+    /**
+     * Max. number of sequence ranges listed in a gap record - the rest are only counted.
+     */
+    private static final int MAX_RANGES = 32;
+
+    private static class Gap {
+
+        final String reason;
+        final String sessionId;
+        long lost = 0;
+        long unlisted = 0;
+        final List<long[]> ranges = new ArrayList<long[]>();
+
+        Gap(String reason, String sessionId) {
+            this.reason = reason;
+            this.sessionId = sessionId;
+        }
+
+        void add(long sequence) {
+            ++lost;
+            if (sequence == LogEvent.NO_SEQUENCE) {
+                ++unlisted;
+                return;
+            }
+
+            // Events are mostly dropped oldest first, so the sequence numbers usually extend the last range.
+            if (!ranges.isEmpty()) {
+                long[] last = ranges.get(ranges.size() - 1);
+                if (sequence == last[1] + 1) {
+                    last[1] = sequence;
+                    return;
+                }
+                if (sequence >= last[0] && sequence <= last[1]) {
+                    --lost; // Another line of the same event.
+                    return;
+                }
+            }
+            if (ranges.size() < MAX_RANGES) {
+                ranges.add(new long[]{sequence, sequence});
+            } else {
+                ++unlisted;
+            }
+        }
+
+        StructuredMessage toRecord() {
+            Map<String, String> fields = new LinkedHashMap<String, String>();
+            fields.put("Reason", reason);
+            fields.put("Lost", Long.toString(lost));
+            if (sessionId != null) {
+                fields.put("Session", sessionId);
+            }
+            if (!ranges.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (long[] range : ranges) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(range[0]);
+                    if (range[1] != range[0]) {
+                        sb.append('-').append(range[1]);
+                    }
+                }
+                fields.put("Seq", sb.toString());
+            }
+            if (unlisted > 0) {
+                fields.put("Unlisted", Long.toString(unlisted));
+            }
+            return new StructuredMessage(Priority.WARN, GAP_TAG, "Lost " + lost + " log events: " + reason, null, fields);
+        }
+    }
+
+    private final Map<String, Gap> gaps = new LinkedHashMap<String, Gap>();
+    private final LoggerMetrics metrics;
+
+    public GapTracker(LoggerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records the loss of the event.
+     */
+    public synchronized void onLost(String reason, LogEvent event) {
+        Gap gap = gap(reason, event.getSessionId());
+        long lost = gap.lost;
+        gap.add(event.getSequence());
+        metrics.onLost(gap.lost - lost);
+    }
+
+    /**
+     * Records the loss of events whose sequence numbers are not known.
+     */
+    public synchronized void onLost(String reason, long count) {
+        Gap gap = gap(reason, null);
+        gap.lost += count;
+        gap.unlisted += count;
+        metrics.onLost(count);
+    }
+
+    public synchronized boolean isEmpty() {
+        return gaps.isEmpty();
+    }
+
+    /**
+     * Returns the gap records for the losses since the previous call.
+     */
+    public synchronized List<StructuredMessage> takeRecords() {
+        List<StructuredMessage> records = new ArrayList<StructuredMessage>();
+        for (Gap gap : gaps.values()) {
+            records.add(gap.toRecord());
+        }
+        gaps.clear();
+        return records;
+    }
+
+    private Gap gap(String reason, String sessionId) {
+        String key = reason + "/" + sessionId;
+        Gap gap = gaps.get(key);
+        if (gap == null) {
+            gap = new Gap(reason, sessionId);
+            gaps.put(key, gap);
+        }
+        return gap;
+    }
+}
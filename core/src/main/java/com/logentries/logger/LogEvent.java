@@ -0,0 +1,214 @@
+package com.logentries.logger;
+
+import com.logentries.misc.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Log event on its way from the caller to the socket appender. An event holds either a single
+ * message (possibly a {@link StructuredMessage}, rendered when it is first needed), or several
+ * lines which are queued and sent as one unit - as strings, or as pre-encoded '\n'-separated
+ * UTF-8 lines which go to the wire as they are.
+ */
+public class LogEvent {
+
+    /**
+     * Offset of the events that have not been written to the journal.
+     */
+    public static final long NO_OFFSET = -1;
+
+    /**
+     * Sequence number of the events that have not been stamped.
+     */
+    public static final long NO_SEQUENCE = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String message;
+    private StructuredMessage structured;
+    private final List<String> lines;
+    private final ByteBuffer utf8Lines;
+
+    /**
+     * Session the event has been logged in and its sequence number within the session, assigned
+     * when the event is queued. Events that haven't been stamped have no session.
+     */
+    private String sessionId = null;
+    private long sequence = NO_SEQUENCE;
+
+    /**
+     * Journal segment holding the event and the offset of its record there (journal mode only).
+     */
+    private LogJournal journal = null;
+    private long journalOffset = NO_OFFSET;
+
+    /**
+     * Set for the events queued before the journal has been opened - the socket appender journals
+     * them when it takes them off the queue.
+     */
+    private boolean awaitingJournal = false;
+
+    public LogEvent(String message) {
+        this(message, null, null);
+    }
+
+    private LogEvent(String message, List<String> lines, ByteBuffer utf8Lines) {
+        this.message = message;
+        this.lines = lines;
+        this.utf8Lines = utf8Lines;
+    }
+
+    /**
+     * Creates an event holding a structured message, which is rendered when the event is
+     * about to be sent (or written to the journal).
+     */
+    public static LogEvent ofStructured(StructuredMessage structured) {
+        LogEvent event = new LogEvent(null, null, null);
+        event.structured = structured;
+        return event;
+    }
+
+    /**
+     * Creates an event holding several lines.
+     */
+    public static LogEvent ofLines(List<String> lines) {
+        return new LogEvent(null, lines, null);
+    }
+
+    /**
+     * Creates an event holding '\n'-separated UTF-8 lines. The buffer's content from its position
+     * to its limit is used without copying, so it must not be modified afterwards.
+     */
+    public static LogEvent ofUtf8Lines(ByteBuffer utf8Lines) {
+        return new LogEvent(null, null, utf8Lines.slice());
+    }
+
+    /**
+     * Returns the message of a single-message event, or null for the multi-line events.
+     */
+    public String getMessage() {
+        if (structured != null) {
+            message = structured.render();
+            structured = null;
+        }
+        return message;
+    }
+
+    /**
+     * Returns true if the event holds pre-encoded UTF-8 lines.
+     */
+    public boolean isUtf8() {
+        return utf8Lines != null;
+    }
+
+    /**
+     * Returns the pre-encoded UTF-8 lines of the event, or null if the event holds strings.
+     */
+    public ByteBuffer getUtf8Lines() {
+        return utf8Lines == null ? null : utf8Lines.duplicate();
+    }
+
+    /**
+     * Returns all lines of the event as strings, decoding the UTF-8 ones if needed.
+     */
+    public List<String> getLines() {
+        if (message != null || structured != null) {
+            return Collections.singletonList(getMessage());
+        }
+        if (lines != null) {
+            return lines;
+        }
+
+        List<String> decoded = new ArrayList<String>();
+        String text = UTF8.decode(utf8Lines.duplicate()).toString();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            if (end > start) {
+                decoded.add(text.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns the size of the event encoded in UTF-8 - estimated for the structured messages
+     * which have not been rendered yet.
+     */
+    public int getSize() {
+        if (structured != null) {
+            return structured.estimateSize();
+        }
+        if (message != null) {
+            return Utils.utf8Length(message);
+        }
+        if (lines != null) {
+            int size = 0;
+            for (String line : lines) {
+                size += Utils.utf8Length(line) + 1;
+            }
+            return size;
+        }
+        return utf8Lines.remaining();
+    }
+
+    /**
+     * Returns the structured message of the event if it has not been rendered yet.
+     */
+    StructuredMessage getStructured() {
+        return structured;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isStamped() {
+        return sessionId != null;
+    }
+
+    void stamp(String sessionId, long sequence) {
+        this.sessionId = sessionId;
+        this.sequence = sequence;
+    }
+
+    public boolean isJournaled() {
+        return journal != null;
+    }
+
+    boolean isAwaitingJournal() {
+        return awaitingJournal;
+    }
+
+    void setAwaitingJournal(boolean awaitingJournal) {
+        this.awaitingJournal = awaitingJournal;
+    }
+
+    void setJournalRecord(LogJournal journal, long journalOffset) {
+        this.journal = journal;
+        this.journalOffset = journalOffset;
+    }
+
+    /**
+     * Marks the event as delivered (or safely stored elsewhere), so it won't be re-sent
+     * from the journal after a restart.
+     */
+    void acknowledge() {
+        if (journal != null) {
+            journal.acknowledge(journalOffset);
+            journal = null;
+        }
+    }
+}
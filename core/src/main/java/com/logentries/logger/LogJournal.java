@@ -0,0 +1,536 @@
+package com.logentries.logger;
+
+import com.logentries.misc.InternalLog;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead journal of log events. Each logging session writes its own journal segment: every
+ * event is appended to the segment before it is queued, and acknowledged once it has been delivered
+ * (or saved to the local storage). The segment header holds the committed offset - the position
+ * of the oldest record that has not been acknowledged yet - so after a restart only the
+ * unacknowledged records of the previous segments are re-sent.
+ * <p>
+ * Appends go to in-memory buffers, which are written to the file in bulk. The socket appender
+ * syncs the segment to the disk (group commit) once syncBatchSize events have been appended
+ * since the last sync, the sync interval has elapsed or a buffer has filled up. A full buffer is
+ * handed over to the next sync and replaced with a free one, so the appends never wait for the
+ * disk - unless the appender falls behind by more than MAX_FILLED_BUFFERS buffers.
+ */
+public class LogJournal {
+
+    private static final String TAG = "LogentriesAndroidLogger";
+    private static final String JOURNAL_DIR_NAME = "LogentriesJournal";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final int HEADER_SIZE = 8; // Committed offset.
+    private static final int RECORD_HEADER_SIZE = 5; // Payload length and record kind.
+
+    // Record kinds.
+    private static final byte KIND_MESSAGE = 0;     // Single message.
+    private static final byte KIND_UTF8_LINES = 1;  // '\n'-separated lines.
+    private static final byte KIND_STAMPED_MESSAGE = 2;     // Sequence number + single message.
+    private static final byte KIND_STAMPED_UTF8_LINES = 3;  // Sequence number + '\n'-separated lines.
+
+    private static final int SEQUENCE_SIZE = 8;
+
+    private static final String LINE_SEP_REPLACER = "\u2028";
+    private static final int MAX_RECORD_SIZE = 4 * AsyncLoggingWorker.LOG_LENGTH_LIMIT;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Max. number of full buffers waiting for a sync. Beyond that the appends write the oldest one
+     * themselves, so the memory stays bounded if the disk cannot keep up.
+     */
+    private static final int MAX_FILLED_BUFFERS = 8;
+
+    /**
+     * Fully acknowledged segment is truncated once it grows over this size.
+     */
+    private static final long COMPACTION_THRESHOLD = 4 * 1024 * 1024; // 4 MBytes.
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Segments in use by the workers of this process - their current segments and the previous
+     * ones they are recovering. They are skipped by {@link #openPreviousSegments}, so a re-created
+     * logger does not replay (and later delete) the segment the old one is still writing to.
+     */
+    private static final Set<File> segmentsInUse = new HashSet<File>();
+
+    private final File file;
+    private final String sessionId; // Null for the segments written before the events were stamped.
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer writeBuffer = null; // Current segment only.
+    private ByteBuffer spareBuffer = null;  // Free buffer, taken when writeBuffer is handed over.
+    /**
+     * Full buffers waiting for the next sync, in the file order (flipped for reading).
+     */
+    private final ArrayDeque<ByteBuffer> filledBuffers = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * Serializes the syncs, which write and force the file outside of the segment's monitor.
+     */
+    private final Object syncLock = new Object();
+
+    private long writePosition = HEADER_SIZE; // Where the next record goes, including the buffered ones.
+    private long bufferedPosition = HEADER_SIZE; // Where the oldest buffered record goes.
+    private long committedOffset = HEADER_SIZE;
+    private boolean headerChanged = false;
+
+    /**
+     * Offsets of the records that have not been acknowledged yet, in the file order.
+     */
+    private final ArrayDeque<Long> inFlight = new ArrayDeque<Long>();
+    /**
+     * Acknowledged records that are preceded by unacknowledged ones (urgent events overtake the
+     * regular ones, so acknowledgements may come out of order).
+     */
+    private final HashSet<Long> acknowledgedOutOfOrder = new HashSet<Long>();
+
+    private final long syncIntervalNanos;
+    private final int syncBatchSize;
+    private int appendsSinceSync = 0;
+    private long lastSyncTime = System.nanoTime();
+
+    private LogJournal(File file, long syncIntervalMs, int syncBatchSize) throws IOException {
+        this.file = file;
+        this.sessionId = parseSessionId(file.getName());
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        this.syncBatchSize = syncBatchSize;
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Creates a new journal segment for the current session.
+     *
+     * @param filesDir       directory of the application's files.
+     * @param syncIntervalMs max. time between syncs, in milliseconds.
+     * @param syncBatchSize  max. number of events appended between syncs.
+     */
+    public static LogJournal createSegment(File filesDir, long syncIntervalMs, int syncBatchSize) throws IOException {
+        return createSegment(filesDir, null, syncIntervalMs, syncBatchSize);
+    }
+
+    /**
+     * Creates a new journal segment for the given session. The session ID is kept in the segment's
+     * name, so the events recovered from it get back their session.
+     *
+     * @param filesDir       directory of the application's files.
+     * @param sessionId      ID of the current session; may be null.
+     * @param syncIntervalMs max. time between syncs, in milliseconds.
+     * @param syncBatchSize  max. number of events appended between syncs.
+     */
+    public static LogJournal createSegment(File filesDir, String sessionId, long syncIntervalMs, int syncBatchSize)
+            throws IOException {
+        File dir = new File(filesDir, JOURNAL_DIR_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the journal directory " + dir.getPath());
+        }
+
+        String suffix = (sessionId != null ? "-" + sessionId : "") + SEGMENT_SUFFIX;
+        long id = System.currentTimeMillis();
+        File file = new File(dir, SEGMENT_PREFIX + id + suffix);
+        while (file.exists()) {
+            file = new File(dir, SEGMENT_PREFIX + (++id) + suffix);
+        }
+
+        LogJournal journal = new LogJournal(file, syncIntervalMs, syncBatchSize);
+        journal.writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        journal.spareBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        journal.channel.truncate(0);
+        journal.writeHeader(HEADER_SIZE);
+        synchronized (segmentsInUse) {
+            segmentsInUse.add(file);
+        }
+        return journal;
+    }
+
+    /**
+     * Opens the segments left by the previous sessions, oldest first. Segments in use by other
+     * workers of this process are skipped.
+     *
+     * @param filesDir directory of the application's files.
+     * @param current  segment of the current session, which is skipped.
+     */
+    public static List<LogJournal> openPreviousSegments(File filesDir, LogJournal current) {
+        List<LogJournal> segments = new ArrayList<LogJournal>();
+        File[] files = new File(filesDir, JOURNAL_DIR_NAME).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return segments;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            if (current != null && file.equals(current.file)) {
+                continue;
+            }
+            synchronized (segmentsInUse) {
+                if (!segmentsInUse.add(file)) {
+                    continue;
+                }
+            }
+            try {
+                segments.add(new LogJournal(file, 0, 0));
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot open the journal segment " + file.getName() + ": " + ex.getMessage());
+                synchronized (segmentsInUse) {
+                    segmentsInUse.remove(file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Reads all records that have not been acknowledged yet. A torn record at the end of the
+     * segment (left by a crash in the middle of a write) is discarded.
+     *
+     * @return unacknowledged events, in the order they have been appended.
+     */
+    public synchronized List<LogEvent> recover() throws IOException {
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        long size = channel.size();
+
+        committedOffset = HEADER_SIZE;
+        if (size >= HEADER_SIZE) {
+            headerBuffer.clear();
+            channel.read(headerBuffer, 0);
+            headerBuffer.flip();
+            long offset = headerBuffer.getLong();
+            if (offset >= HEADER_SIZE && offset <= size) {
+                committedOffset = offset;
+            }
+        }
+
+        long position = committedOffset;
+        // The stream is not closed on purpose - it would close the channel as well.
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(position))));
+        try {
+            while (position + RECORD_HEADER_SIZE <= size) {
+                int length = input.readInt();
+                byte kind = input.readByte();
+                boolean stamped = kind == KIND_STAMPED_MESSAGE || kind == KIND_STAMPED_UTF8_LINES;
+                if (length < (stamped ? SEQUENCE_SIZE : 0) || position + RECORD_HEADER_SIZE + length > size ||
+                        (isMessage(kind) && length > MAX_RECORD_SIZE + SEQUENCE_SIZE)) {
+                    break;
+                }
+                long sequence = stamped ? input.readLong() : LogEvent.NO_SEQUENCE;
+                byte[] data = new byte[stamped ? length - SEQUENCE_SIZE : length];
+                input.readFully(data);
+
+                LogEvent event = isMessage(kind) ? new LogEvent(new String(data, UTF8)) :
+                        LogEvent.ofUtf8Lines(ByteBuffer.wrap(data));
+                if (stamped && sessionId != null) {
+                    event.stamp(sessionId, sequence);
+                }
+                event.setJournalRecord(this, position);
+                inFlight.add(position);
+                events.add(event);
+                position += RECORD_HEADER_SIZE + length;
+            }
+        } catch (EOFException ex) {
+            // The last record is incomplete.
+        }
+
+        if (position < size) {
+            InternalLog.e(TAG, "Discarding " + (size - position) + " bytes of incomplete records in " + file.getName());
+            channel.truncate(position);
+        }
+        writePosition = position;
+        bufferedPosition = position;
+        return events;
+    }
+
+    /**
+     * Appends the event to the journal. The record is not durable until the next sync.
+     */
+    public synchronized void append(LogEvent event) throws IOException {
+        if (writeBuffer == null) {
+            throw new IOException("Cannot append to the journal segment of a previous session");
+        }
+
+        byte kind;
+        ByteBuffer data;
+        if (event.getMessage() != null) {
+            kind = KIND_MESSAGE;
+            data = ByteBuffer.wrap(event.getMessage().getBytes(UTF8));
+        } else if (event.isUtf8()) {
+            kind = KIND_UTF8_LINES;
+            data = event.getUtf8Lines(); // Copied to the journal as is.
+        } else {
+            kind = KIND_UTF8_LINES;
+            data = ByteBuffer.wrap(joinLines(event.getLines()).getBytes(UTF8));
+        }
+
+        // The sequence number is only worth keeping if the session can be restored with it.
+        boolean stamped = event.isStamped() && event.getSessionId().equals(sessionId);
+        if (stamped) {
+            kind = kind == KIND_MESSAGE ? KIND_STAMPED_MESSAGE : KIND_STAMPED_UTF8_LINES;
+        }
+        int length = data.remaining() + (stamped ? SEQUENCE_SIZE : 0);
+
+        int recordSize = RECORD_HEADER_SIZE + length;
+        ByteBuffer target = writeBuffer;
+        if (recordSize > WRITE_BUFFER_SIZE) {
+            // Oversized record - gets a buffer of its own, after the buffered records.
+            handOverWriteBuffer();
+            target = ByteBuffer.allocate(recordSize);
+        } else if (writeBuffer.remaining() < recordSize) {
+            handOverWriteBuffer();
+            target = writeBuffer;
+        }
+
+        target.putInt(length);
+        target.put(kind);
+        if (stamped) {
+            target.putLong(event.getSequence());
+        }
+        target.put(data);
+        if (target != writeBuffer) {
+            target.flip();
+            addFilledBuffer(target);
+        }
+
+        event.setJournalRecord(this, writePosition);
+        inFlight.add(writePosition);
+        writePosition += recordSize;
+        ++appendsSinceSync;
+    }
+
+    /**
+     * Marks the record at the given offset as delivered and advances the committed offset
+     * over all acknowledged records at the head of the segment.
+     */
+    public synchronized void acknowledge(long offset) {
+        Long oldest = inFlight.peekFirst();
+        if (oldest == null || oldest != offset) {
+            acknowledgedOutOfOrder.add(offset);
+            return;
+        }
+
+        inFlight.pollFirst();
+        while (!inFlight.isEmpty() && acknowledgedOutOfOrder.remove(inFlight.peekFirst())) {
+            inFlight.pollFirst();
+        }
+        committedOffset = inFlight.isEmpty() ? writePosition : inFlight.peekFirst();
+        headerChanged = true;
+    }
+
+    /**
+     * Returns true if all records of the segment have been acknowledged.
+     */
+    public synchronized boolean isFullyAcknowledged() {
+        return inFlight.isEmpty();
+    }
+
+    /**
+     * Syncs the segment if enough events have been appended since the last sync, or the sync
+     * interval has elapsed.
+     */
+    public void syncIfDue() throws IOException {
+        boolean due;
+        synchronized (this) {
+            due = !filledBuffers.isEmpty() || appendsSinceSync >= syncBatchSize ||
+                    ((appendsSinceSync > 0 || headerChanged) && System.nanoTime() - lastSyncTime >= syncIntervalNanos);
+        }
+        if (due) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes all buffered records and the committed offset to the file and syncs it to the disk.
+     * Only taking the buffers happens under the segment's monitor - the appends go on while the
+     * disk is busy.
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            List<ByteBuffer> pending = null;
+            long pendingPosition = 0;
+            long header = -1;
+
+            synchronized (this) {
+                if (appendsSinceSync == 0 && !headerChanged) {
+                    return;
+                }
+
+                if (writeBuffer != null && inFlight.isEmpty() && writePosition > COMPACTION_THRESHOLD) {
+                    // Everything has been delivered - start the segment over.
+                    for (ByteBuffer filled : filledBuffers) {
+                        recycle(filled);
+                    }
+                    filledBuffers.clear();
+                    writeBuffer.clear();
+                    channel.truncate(HEADER_SIZE);
+                    writePosition = HEADER_SIZE;
+                    bufferedPosition = HEADER_SIZE;
+                    committedOffset = HEADER_SIZE;
+                    headerChanged = true;
+                }
+                if (writeBuffer != null && writePosition > bufferedPosition) {
+                    handOverWriteBuffer();
+                    pending = new ArrayList<ByteBuffer>(filledBuffers);
+                    filledBuffers.clear();
+                    pendingPosition = bufferedPosition;
+                    bufferedPosition = writePosition;
+                }
+                if (headerChanged) {
+                    header = committedOffset;
+                    headerChanged = false;
+                }
+                appendsSinceSync = 0;
+            }
+
+            try {
+                if (pending != null) {
+                    for (ByteBuffer buffer : pending) {
+                        int size = buffer.remaining();
+                        writeFully(buffer, pendingPosition);
+                        pendingPosition += size;
+                    }
+                }
+                if (header >= 0) {
+                    writeHeader(header);
+                }
+                channel.force(false);
+            } finally {
+                synchronized (this) {
+                    if (pending != null) {
+                        for (ByteBuffer buffer : pending) {
+                            recycle(buffer);
+                        }
+                    }
+                    lastSyncTime = System.nanoTime();
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes the segment. A segment of a previous session is deleted if all its records
+     * have been acknowledged.
+     */
+    public void close() {
+        try {
+            synchronized (this) {
+                if (writeBuffer == null && inFlight.isEmpty()) {
+                    randomAccessFile.close();
+                    if (!file.delete()) {
+                        InternalLog.e(TAG, "Cannot delete the journal segment " + file.getName());
+                    }
+                    return;
+                }
+            }
+            sync();
+            randomAccessFile.close();
+        } catch (IOException ex) {
+            InternalLog.e(TAG, "Cannot close the journal segment " + file.getName() + ": " + ex.getMessage());
+        } finally {
+            synchronized (segmentsInUse) {
+                segmentsInUse.remove(file);
+            }
+        }
+    }
+
+    private static boolean isMessage(byte kind) {
+        return kind == KIND_MESSAGE || kind == KIND_STAMPED_MESSAGE;
+    }
+
+    /**
+     * Extracts the session ID from a segment name: segment-[id]-[session].journal.
+     */
+    private static String parseSessionId(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return null;
+        }
+        String id = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        int separator = id.indexOf('-');
+        return separator >= 0 ? id.substring(separator + 1) : null;
+    }
+
+    private static String joinLines(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            // The line separators within the lines are replaced anyway when the lines are sent.
+            sb.append(line.replace("\n", LINE_SEP_REPLACER)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hands the write buffer over to the next sync and takes a free one.
+     */
+    private void handOverWriteBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        addFilledBuffer(writeBuffer);
+        writeBuffer = spareBuffer != null ? spareBuffer : ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        spareBuffer = null;
+    }
+
+    private void addFilledBuffer(ByteBuffer buffer) throws IOException {
+        if (filledBuffers.size() >= MAX_FILLED_BUFFERS) {
+            // The appender falls behind - write the oldest buffer here rather than buffering more.
+            ByteBuffer oldest = filledBuffers.pollFirst();
+            int size = oldest.remaining();
+            writeFully(oldest, bufferedPosition);
+            bufferedPosition += size;
+            recycle(oldest);
+        }
+        filledBuffers.addLast(buffer);
+    }
+
+    /**
+     * Keeps a written buffer as the spare one; the oversized ones are left to the GC.
+     */
+    private void recycle(ByteBuffer buffer) {
+        if (spareBuffer == null && buffer.capacity() == WRITE_BUFFER_SIZE) {
+            buffer.clear();
+            spareBuffer = buffer;
+        }
+    }
+
+    private void writeHeader(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(offset);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
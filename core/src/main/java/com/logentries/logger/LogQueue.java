@@ -0,0 +1,122 @@
+package com.logentries.logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded event queue with two priority lanes. Messages from the urgent lane are always
+ * handed out before the regular ones. Each lane is FIFO, so messages coming from the same
+ * source keep their order within a lane.
+ */
+public class LogQueue {
+
+    private final ArrayBlockingQueue<LogEvent> urgentLane;
+    private final ArrayBlockingQueue<LogEvent> regularLane;
+
+    /**
+     * Number of messages available across both lanes - lets the consumer wait for a message
+     * in any of the lanes.
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    public LogQueue(int regularCapacity, int urgentCapacity) {
+        regularLane = new ArrayBlockingQueue<LogEvent>(regularCapacity);
+        urgentLane = new ArrayBlockingQueue<LogEvent>(urgentCapacity);
+    }
+
+    /**
+     * Inserts the message to the tail of the given lane.
+     *
+     * @return false if the lane is full.
+     */
+    public boolean offer(LogEvent event, boolean urgent) {
+        if (!lane(urgent).offer(event)) {
+            return false;
+        }
+        available.release();
+        return true;
+    }
+
+    /**
+     * Removes the oldest message of the given lane.
+     *
+     * @return the removed message or null if the lane is empty.
+     */
+    public LogEvent pollOldest(boolean urgent) {
+        LogEvent event = lane(urgent).poll();
+        if (event != null) {
+            available.tryAcquire();
+        }
+        return event;
+    }
+
+    /**
+     * Retrieves the next message, urgent ones first, waiting up to the given time if both
+     * lanes are empty.
+     *
+     * @return the message or null if the timeout has expired.
+     */
+    public LogEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!available.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        LogEvent event = urgentLane.poll();
+        return event != null ? event : regularLane.poll();
+    }
+
+    /**
+     * Retrieves the next message, urgent ones first, waiting until one is available.
+     *
+     * @return the message or null if the consumer has been woken up with no message available.
+     */
+    public LogEvent take() throws InterruptedException {
+        available.acquire();
+        LogEvent event = urgentLane.poll();
+        return event != null ? event : regularLane.poll();
+    }
+
+    /**
+     * Retrieves the next message, urgent ones first, without waiting.
+     */
+    public LogEvent poll() {
+        LogEvent event = urgentLane.poll();
+        if (event == null) {
+            event = regularLane.poll();
+        }
+        if (event != null) {
+            available.tryAcquire();
+        }
+        return event;
+    }
+
+    /**
+     * Retrieves the next urgent message without waiting.
+     */
+    public LogEvent pollUrgent() {
+        LogEvent event = urgentLane.poll();
+        if (event != null) {
+            available.tryAcquire();
+        }
+        return event;
+    }
+
+    public int size() {
+        return urgentLane.size() + regularLane.size();
+    }
+
+    /**
+     * Wakes up the consumer waiting for a message, even if there is none.
+     */
+    public void wakeUp() {
+        available.release();
+    }
+
+    public boolean isEmpty() {
+        return urgentLane.isEmpty() && regularLane.isEmpty();
+    }
+
+    private ArrayBlockingQueue<LogEvent> lane(boolean urgent) {
+        return urgent ? urgentLane : regularLane;
+    }
+}
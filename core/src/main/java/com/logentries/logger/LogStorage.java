@@ -0,0 +1,343 @@
+package com.logentries.logger;
+
+import com.logentries.misc.InternalLog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+public class LogStorage {
+
+    private static final String TAG = "LogentriesAndroidLogger";
+    private static final String STORAGE_FILE_NAME = "LogentriesLogStorage.log";
+    private static final String CRASH_FILE_NAME = "LogentriesCrash.log";
+    private static final String CRASH_REPLAY_FILE_NAME = "LogentriesCrashReplay.log";
+    private static final long MAX_QUEUE_FILE_SIZE = 10 * 1024 * 1024; // 10 MBytes.
+
+    // Stamped lines look like "<RS><session> <sequence><TAB><message>".
+    private static final char STAMP_MARKER = '\u001E';
+    private static final char STAMP_END = '\t';
+
+    private File directory;
+
+    private File storageFilePtr = null; // We keep the ptr permanently, because frequently accessing
+    // the file for retrieving it's size.
+
+    /**
+     * Number of events lost because the storage file has been cleared when it got full.
+     */
+    private long droppedEvents = 0;
+
+    /**
+     * @param directory private directory of the app (or service) the storage files are kept in.
+     */
+    public LogStorage(File directory) throws IOException {
+        this.directory = directory;
+        storageFilePtr = create();
+    }
+
+    /**
+     * Stores the message with the session ID and the sequence number of its event, so that they
+     * are restored along with the message (see {@link #toEvent(String)}).
+     */
+    public void putLogToStorage(LogEvent event, String message) throws IOException, RuntimeException {
+        putLogToStorage(toStoredLine(event, message));
+    }
+
+    /**
+     * Stores all lines of the events, along with their stamps, in one go: the storage file is
+     * opened and its size checked once for all of them.
+     */
+    public void putLogsToStorage(List<LogEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        long size = 0;
+        for (LogEvent event : events) {
+            size += event.getSize() + 1;
+        }
+        long currSize = getCurrentStorageFileSize() + size;
+        InternalLog.d(TAG, "Storing " + events.size() + " events, current size: " + currSize);
+        if (currSize >= MAX_QUEUE_FILE_SIZE) {
+            InternalLog.d(TAG, "Log storage will be cleared because threshold of " + MAX_QUEUE_FILE_SIZE + " bytes has been reached");
+            droppedEvents += countStoredEvents();
+            reCreateStorageFile();
+        }
+
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(directory, STORAGE_FILE_NAME), true)));
+            for (LogEvent event : events) {
+                for (String line : event.getLines()) {
+                    writer.write(toStoredLine(event, line));
+                    if (!line.endsWith("\n")) {
+                        writer.write('\n');
+                    }
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the line of the event as it is kept in the storage - with the session ID and
+     * the sequence number of the event, if it has been stamped.
+     */
+    public static String toStoredLine(LogEvent event, String line) {
+        if (event.isStamped()) {
+            return STAMP_MARKER + event.getSessionId() + " " + event.getSequence() + STAMP_END + line;
+        }
+        return line;
+    }
+
+    public void putLogToStorage(String message) throws IOException, RuntimeException {
+
+        // Fix line endings for ingesting the log to the local storage.
+        if (!message.endsWith("\n")) {
+            message += "\n";
+        }
+
+        FileOutputStream writer = null;
+        try {
+            byte[] rawMessage = message.getBytes();
+            long currSize = getCurrentStorageFileSize() + rawMessage.length;
+            String sizeStr = Long.toString(currSize);
+            InternalLog.d(TAG, "Current size: " + sizeStr);
+            if (currSize >= MAX_QUEUE_FILE_SIZE) {
+                InternalLog.d(TAG, "Log storage will be cleared because threshold of " + MAX_QUEUE_FILE_SIZE + " bytes has been reached");
+                droppedEvents += countStoredEvents();
+                reCreateStorageFile();
+            }
+
+            writer = new FileOutputStream(new File(directory, STORAGE_FILE_NAME), true);
+            writer.write(rawMessage);
+
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the crash file for appending. It is opened in advance, so that the logs pending at
+     * the time of a crash can be written to it in a single write (see {@link CrashHandler}).
+     */
+    public FileChannel openCrashFile() throws IOException {
+        return new FileOutputStream(new File(directory, CRASH_FILE_NAME), true).getChannel();
+    }
+
+    /**
+     * Returns the logs written to the crash file by the previous sessions. The crash file is moved
+     * aside (the current session's crashes go to a new one), and the logs are kept in the replay file
+     * until {@link #removeCrashLogs()} is called once they have been delivered - so they are replayed
+     * again if the session ends before that.
+     */
+    public Queue<String> takeCrashLogs() {
+        File crashFile = new File(directory, CRASH_FILE_NAME);
+        File replayFile = new File(directory, CRASH_REPLAY_FILE_NAME);
+
+        if (crashFile.exists()) {
+            if (!replayFile.exists()) {
+                if (!crashFile.renameTo(replayFile)) {
+                    InternalLog.e(TAG, "Cannot rename " + CRASH_FILE_NAME);
+                }
+            } else {
+                // The previous replay has not completed - add the new crash to it.
+                FileOutputStream writer = null;
+                try {
+                    writer = new FileOutputStream(replayFile, true);
+                    for (String line : readLogs(CRASH_FILE_NAME)) {
+                        writer.write((line + "\n").getBytes());
+                    }
+                } catch (IOException ex) {
+                    InternalLog.e(TAG, "Cannot move the crash logs to " + CRASH_REPLAY_FILE_NAME + ": " + ex.getMessage());
+                } finally {
+                    try {
+                        if (writer != null) {
+                            writer.close();
+                        }
+                    } catch (IOException ex2) {
+                        InternalLog.e(TAG, "Cannot close " + CRASH_REPLAY_FILE_NAME + ": " + ex2.getMessage());
+                    }
+                }
+                if (!crashFile.delete()) {
+                    InternalLog.e(TAG, "Cannot delete " + CRASH_FILE_NAME);
+                }
+            }
+        }
+
+        if (!replayFile.exists()) {
+            return new ArrayDeque<String>();
+        }
+        Queue<String> logs = readLogs(CRASH_REPLAY_FILE_NAME);
+        if (logs.isEmpty()) {
+            removeCrashLogs();
+        }
+        return logs;
+    }
+
+    /**
+     * Removes the crash logs returned by {@link #takeCrashLogs()} once they have been delivered
+     * (or saved to the storage file).
+     */
+    public void removeCrashLogs() {
+        File replayFile = new File(directory, CRASH_REPLAY_FILE_NAME);
+        if (replayFile.exists() && !replayFile.delete()) {
+            InternalLog.e(TAG, "Cannot delete " + CRASH_REPLAY_FILE_NAME);
+        }
+    }
+
+    public Queue<String> getAllLogsFromStorage(boolean needToRemoveStorageFile) {
+        Queue<String> logs = readLogs(STORAGE_FILE_NAME);
+        if (needToRemoveStorageFile && storageFilePtr.exists()) {
+            try {
+                removeStorageFile();
+            } catch (IOException ex) {
+                InternalLog.e(TAG, "Cannot load logs from the local storage: " + ex.getMessage());
+            }
+        }
+        return logs;
+    }
+
+    private Queue<String> readLogs(String fileName) {
+        Queue<String> logs = new ArrayDeque<String>();
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream(new File(directory, fileName));
+            DataInputStream inputStream = new DataInputStream(input);
+            BufferedReader bufReader = new BufferedReader(new InputStreamReader(inputStream));
+
+            String logLine = bufReader.readLine();
+            while (logLine != null) {
+                logs.offer(logLine);
+                logLine = bufReader.readLine();
+            }
+
+        } catch (IOException ex) {
+            InternalLog.e(TAG, "Cannot load logs from the local storage: " + ex.getMessage());
+            // Basically, ignore the exception - if something has gone wrong - just return empty
+            // logs list.
+        } finally {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException ex2) {
+                InternalLog.e(TAG, "Cannot close the local storage file: " + ex2.getMessage());
+            }
+        }
+
+        return logs;
+    }
+
+    /**
+     * Returns the number of events lost because the storage got full since the previous call.
+     */
+    public long takeDroppedEvents() {
+        long dropped = droppedEvents;
+        droppedEvents = 0;
+        return dropped;
+    }
+
+    /**
+     * Converts a stored line back to an event, restoring its session ID and sequence number
+     * if the line has been stored with them.
+     */
+    public static LogEvent toEvent(String line) {
+        if (line.length() > 0 && line.charAt(0) == STAMP_MARKER) {
+            int separator = line.indexOf(' ');
+            int end = line.indexOf(STAMP_END);
+            if (separator > 0 && end > separator) {
+                try {
+                    long sequence = Long.parseLong(line.substring(separator + 1, end));
+                    LogEvent event = new LogEvent(line.substring(end + 1));
+                    event.stamp(line.substring(1, separator), sequence);
+                    return event;
+                } catch (NumberFormatException ex) {
+                    // Not a stamp after all.
+                }
+            }
+        }
+        return new LogEvent(line);
+    }
+
+    /**
+     * Counts the events in the storage file - the lines of a multi-line event share the same stamp.
+     */
+    private long countStoredEvents() {
+        long count = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(directory, STORAGE_FILE_NAME))));
+            String previousStamp = null;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String stamp = null;
+                if (line.length() > 0 && line.charAt(0) == STAMP_MARKER) {
+                    int end = line.indexOf(STAMP_END);
+                    stamp = end > 0 ? line.substring(0, end) : null;
+                }
+                if (stamp == null || !stamp.equals(previousStamp)) {
+                    ++count;
+                }
+                previousStamp = stamp;
+            }
+        } catch (IOException ex) {
+            InternalLog.e(TAG, "Cannot count the logs in the local storage: " + ex.getMessage());
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (IOException ex2) {
+                InternalLog.e(TAG, "Cannot close the local storage file: " + ex2.getMessage());
+            }
+        }
+        return count;
+    }
+
+    public void removeStorageFile() throws IOException {
+        if (!storageFilePtr.delete()) {
+            throw new IOException("Cannot delete " + STORAGE_FILE_NAME);
+        }
+    }
+
+    public void reCreateStorageFile() throws IOException {
+        InternalLog.d(TAG, "Log storage has been re-created.");
+        if (storageFilePtr == null) {
+            storageFilePtr = create();
+        } else {
+            removeStorageFile();
+        }
+        storageFilePtr = create();
+    }
+
+    private File create() throws IOException {
+        return new File(directory, STORAGE_FILE_NAME);
+    }
+
+    private long getCurrentStorageFileSize() throws IOException {
+        if (storageFilePtr == null) {
+            storageFilePtr = create();
+        }
+
+        return storageFilePtr.length();
+    }
+}
@@ -0,0 +1,453 @@
+package com.logentries.logger;
+
+import com.logentries.net.LogentriesClient;
+
+/**
+ * Configuration of the logger. Instances are immutable and created via {@link Builder}:
+ * <pre>
+ * LoggerConfig config = new LoggerConfig.Builder("159axea4-xxxx-xxxx-xxxx-xxxxxxxxxxxx")
+ *         .useSsl(true)
+ *         .lingerMs(50)
+ *         .maxBatchEvents(100)
+ *         .build();
+ * </pre>
+ */
+public class LoggerConfig {
+
+    /**
+     * Default limit on the size of a batch of messages, in UTF-8 encoded bytes.
+     */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * Default journal group-commit parameters.
+     */
+    public static final long DEFAULT_JOURNAL_SYNC_INTERVAL_MS = 200;
+    public static final int DEFAULT_JOURNAL_SYNC_BATCH_SIZE = 1000;
+
+    /**
+     * Default time after which an idle connection is closed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+
+    /**
+     * Default interval between the reports of the log sources profiler.
+     */
+    public static final long DEFAULT_PROFILER_REPORT_INTERVAL_MS = 60000;
+
+    /**
+     * Default interval between the summaries of the aggregated metrics.
+     */
+    public static final long DEFAULT_METRICS_FLUSH_INTERVAL_MS = 60000;
+
+    /**
+     * Default time allowed for saving the pending logs when the app crashes.
+     */
+    public static final long DEFAULT_CRASH_FLUSH_BUDGET_MS = 50;
+
+    private final String token;
+    private final boolean useHttpPost;
+    private final boolean useSsl;
+    private final boolean useDataHub;
+    private final String dataHubAddress;
+    private final int dataHubPort;
+    private final boolean logHostName;
+    private final long lingerMs;
+    private final int maxBatchBytes;
+    private final int maxBatchEvents;
+    private final boolean adaptiveBatching;
+    private final boolean useJournal;
+    private final long journalSyncIntervalMs;
+    private final int journalSyncBatchSize;
+    private final long idleTimeoutMs;
+    private final boolean useUdp;
+    private final int maxDatagramSize;
+    private final int encoderThreads;
+    private final int profilerTopK;
+    private final long profilerReportIntervalMs;
+    private final long metricsFlushIntervalMs;
+    private final boolean captureCrashes;
+    private final long crashFlushBudgetMs;
+
+    private LoggerConfig(Builder builder) {
+        this.token = builder.token;
+        this.useHttpPost = builder.useHttpPost;
+        this.useSsl = builder.useSsl;
+        this.useDataHub = builder.useDataHub;
+        this.dataHubAddress = builder.dataHubAddress;
+        this.dataHubPort = builder.dataHubPort;
+        this.logHostName = builder.logHostName;
+        this.lingerMs = builder.lingerMs;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.maxBatchEvents = builder.maxBatchEvents;
+        this.adaptiveBatching = builder.adaptiveBatching;
+        this.useJournal = builder.useJournal;
+        this.journalSyncIntervalMs = builder.journalSyncIntervalMs;
+        this.journalSyncBatchSize = builder.journalSyncBatchSize;
+        this.idleTimeoutMs = builder.idleTimeoutMs;
+        this.useUdp = builder.useUdp;
+        this.maxDatagramSize = builder.maxDatagramSize;
+        this.encoderThreads = builder.encoderThreads;
+        this.profilerTopK = builder.profilerTopK;
+        this.profilerReportIntervalMs = builder.profilerReportIntervalMs;
+        this.metricsFlushIntervalMs = builder.metricsFlushIntervalMs;
+        this.captureCrashes = builder.captureCrashes;
+        this.crashFlushBudgetMs = builder.crashFlushBudgetMs;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean isUsingHttpPost() {
+        return useHttpPost;
+    }
+
+    public boolean isUsingSsl() {
+        return useSsl;
+    }
+
+    public boolean isUsingDataHub() {
+        return useDataHub;
+    }
+
+    public String getDataHubAddress() {
+        return dataHubAddress;
+    }
+
+    public int getDataHubPort() {
+        return dataHubPort;
+    }
+
+    public boolean isLoggingHostName() {
+        return logHostName;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchEvents() {
+        return maxBatchEvents;
+    }
+
+    public boolean isAdaptiveBatching() {
+        return adaptiveBatching;
+    }
+
+    public boolean isUsingJournal() {
+        return useJournal;
+    }
+
+    public long getJournalSyncIntervalMs() {
+        return journalSyncIntervalMs;
+    }
+
+    public int getJournalSyncBatchSize() {
+        return journalSyncBatchSize;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public boolean isUsingUdp() {
+        return useUdp;
+    }
+
+    public int getMaxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    public int getProfilerTopK() {
+        return profilerTopK;
+    }
+
+    public long getProfilerReportIntervalMs() {
+        return profilerReportIntervalMs;
+    }
+
+    public long getMetricsFlushIntervalMs() {
+        return metricsFlushIntervalMs;
+    }
+
+    public boolean isCapturingCrashes() {
+        return captureCrashes;
+    }
+
+    public long getCrashFlushBudgetMs() {
+        return crashFlushBudgetMs;
+    }
+
+    public static class Builder {
+
+        private String token;
+        private boolean useHttpPost = false;
+        private boolean useSsl = false;
+        private boolean useDataHub = false;
+        private String dataHubAddress = null;
+        private int dataHubPort = 0;
+        private boolean logHostName = true;
+        private long lingerMs = 0;
+        private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        private int maxBatchEvents = 1;
+        private boolean adaptiveBatching = false;
+        private boolean useJournal = false;
+        private long journalSyncIntervalMs = DEFAULT_JOURNAL_SYNC_INTERVAL_MS;
+        private int journalSyncBatchSize = DEFAULT_JOURNAL_SYNC_BATCH_SIZE;
+        private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+        private boolean useUdp = false;
+        private int maxDatagramSize = LogentriesClient.DEFAULT_MAX_DATAGRAM_SIZE;
+        private int encoderThreads = 0;
+        private int profilerTopK = 0;
+        private long profilerReportIntervalMs = DEFAULT_PROFILER_REPORT_INTERVAL_MS;
+        private long metricsFlushIntervalMs = DEFAULT_METRICS_FLUSH_INTERVAL_MS;
+        private boolean captureCrashes = false;
+        private long crashFlushBudgetMs = DEFAULT_CRASH_FLUSH_BUDGET_MS;
+
+        /**
+         * @param token the Token UUID of the log to which the log events are sent.
+         */
+        public Builder(String token) {
+            this.token = token;
+        }
+
+        /**
+         * Use HTTP POST instead of Token TCP. Cannot be used together with the DataHub.
+         */
+        public Builder useHttpPost(boolean useHttpPost) {
+            this.useHttpPost = useHttpPost;
+            return this;
+        }
+
+        /**
+         * Send the logs over TLS/SSL.
+         */
+        public Builder useSsl(boolean useSsl) {
+            this.useSsl = useSsl;
+            return this;
+        }
+
+        /**
+         * Forward the logs to the DataHub at the given address and port.
+         */
+        public Builder useDataHub(String address, int port) {
+            this.useDataHub = true;
+            this.dataHubAddress = address;
+            this.dataHubPort = port;
+            return this;
+        }
+
+        /**
+         * Append the host name to every log event. Default is true.
+         */
+        public Builder logHostName(boolean logHostName) {
+            this.logHostName = logHostName;
+            return this;
+        }
+
+        /**
+         * Maximum time in milliseconds to wait for more messages before a non-full batch is sent.
+         * Default is 0 - a batch is sent as soon as there are no more messages in the queue.
+         */
+        public Builder lingerMs(long lingerMs) {
+            if (lingerMs < 0) {
+                throw new IllegalArgumentException("lingerMs must be greater or equal to zero");
+            }
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        /**
+         * Limit on the size of a batch, in UTF-8 encoded bytes of the messages (without the metadata
+         * added to them). A single message larger than the limit is sent in a batch of its own.
+         */
+        public Builder maxBatchBytes(int maxBatchBytes) {
+            if (maxBatchBytes <= 0) {
+                throw new IllegalArgumentException("maxBatchBytes must be greater than zero");
+            }
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
+        /**
+         * Maximum number of messages sent in a single write. Default is 1 - every message is
+         * written separately.
+         */
+        public Builder maxBatchEvents(int maxBatchEvents) {
+            if (maxBatchEvents <= 0) {
+                throw new IllegalArgumentException("maxBatchEvents must be greater than zero");
+            }
+            this.maxBatchEvents = maxBatchEvents;
+            return this;
+        }
+
+        /**
+         * If set to true, the batch size limit is adjusted to the traffic: it grows (up to
+         * maxBatchEvents) while messages keep piling up in the queue and shrinks back when the
+         * traffic is light, so a lone message is not held back for lingerMs.
+         */
+        public Builder adaptiveBatching(boolean adaptiveBatching) {
+            this.adaptiveBatching = adaptiveBatching;
+            return this;
+        }
+
+        /**
+         * If set to true, every event is written to a journal file before it is queued, and
+         * the events which have not been delivered are re-sent after a restart (at-least-once
+         * delivery). The journal file of the session is created by the socket appender thread;
+         * the events logged before that are journaled when they are taken off the queue.
+         */
+        public Builder useJournal(boolean useJournal) {
+            this.useJournal = useJournal;
+            return this;
+        }
+
+        /**
+         * Max. time in milliseconds between the journal syncs to the disk.
+         */
+        public Builder journalSyncIntervalMs(long journalSyncIntervalMs) {
+            if (journalSyncIntervalMs < 0) {
+                throw new IllegalArgumentException("journalSyncIntervalMs must be greater or equal to zero");
+            }
+            this.journalSyncIntervalMs = journalSyncIntervalMs;
+            return this;
+        }
+
+        /**
+         * Max. number of events appended to the journal between the syncs to the disk.
+         */
+        public Builder journalSyncBatchSize(int journalSyncBatchSize) {
+            if (journalSyncBatchSize <= 0) {
+                throw new IllegalArgumentException("journalSyncBatchSize must be greater than zero");
+            }
+            this.journalSyncBatchSize = journalSyncBatchSize;
+            return this;
+        }
+
+        /**
+         * Time in milliseconds after which the connection is closed if nothing has been sent;
+         * it is re-opened before the next write. 0 - keep the connection open. Default is 60 s.
+         */
+        public Builder idleTimeoutMs(long idleTimeoutMs) {
+            if (idleTimeoutMs < 0) {
+                throw new IllegalArgumentException("idleTimeoutMs must be greater or equal to zero");
+            }
+            this.idleTimeoutMs = idleTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Send the logs to the DataHub as UDP datagrams instead of over a TCP connection. Suits
+         * high-volume streams which can tolerate losing some lines: there is no head-of-line
+         * blocking, but lost datagrams are neither detected nor re-sent. Requires the DataHub,
+         * and cannot be used with SSL or HTTP POST.
+         */
+        public Builder useUdp(boolean useUdp) {
+            this.useUdp = useUdp;
+            return this;
+        }
+
+        /**
+         * Max. size of a UDP datagram payload - the path MTU minus the IP and UDP headers.
+         * Default is 1472 bytes (1500 bytes Ethernet MTU). Several lines are packed into each
+         * datagram; a line which does not fit into one datagram is split into several ones.
+         */
+        public Builder maxDatagramSize(int maxDatagramSize) {
+            if (maxDatagramSize <= 0) {
+                throw new IllegalArgumentException("maxDatagramSize must be greater than zero");
+            }
+            this.maxDatagramSize = maxDatagramSize;
+            return this;
+        }
+
+        /**
+         * Number of threads formatting and encoding the batches in parallel, while the socket
+         * appender only writes them to the network (in the original order). Worth it on multi-core
+         * devices with bursts of traffic and batching enabled. Default is 0 - the socket appender
+         * does all the work.
+         */
+        public Builder encoderThreads(int encoderThreads) {
+            if (encoderThreads < 0) {
+                throw new IllegalArgumentException("encoderThreads must be greater or equal to zero");
+            }
+            this.encoderThreads = encoderThreads;
+            return this;
+        }
+
+        /**
+         * Track the topK heaviest sources of log events (by tag or message template) and report
+         * them every profilerReportIntervalMs - to the listener set via
+         * {@link AsyncLoggingWorker#setSourceProfilerListener}, or as a log event of their own.
+         * Uses a fixed amount of memory. Default is 0 - the profiler is off.
+         */
+        public Builder profileSources(int topK) {
+            if (topK < 0) {
+                throw new IllegalArgumentException("topK must be greater or equal to zero");
+            }
+            this.profilerTopK = topK;
+            return this;
+        }
+
+        /**
+         * Interval in milliseconds between the reports of the log sources profiler. Default is 60 s.
+         */
+        public Builder profilerReportIntervalMs(long profilerReportIntervalMs) {
+            if (profilerReportIntervalMs <= 0) {
+                throw new IllegalArgumentException("profilerReportIntervalMs must be greater than zero");
+            }
+            this.profilerReportIntervalMs = profilerReportIntervalMs;
+            return this;
+        }
+
+        /**
+         * Interval in milliseconds between the summary events of the metrics aggregated on the
+         * device (see {@link AsyncLoggingWorker#getMetricRegistry()}). Default is 60 s.
+         */
+        public Builder metricsFlushIntervalMs(long metricsFlushIntervalMs) {
+            if (metricsFlushIntervalMs <= 0) {
+                throw new IllegalArgumentException("metricsFlushIntervalMs must be greater than zero");
+            }
+            this.metricsFlushIntervalMs = metricsFlushIntervalMs;
+            return this;
+        }
+
+        /**
+         * Install an uncaught exception handler which, when the app crashes, saves the crash and
+         * the logs still waiting in the queue to the local storage - in a single write, within
+         * crashFlushBudgetMs - before passing the exception on to the previous handler. The saved
+         * logs are sent first on the next start. Default is false.
+         */
+        public Builder captureCrashes(boolean captureCrashes) {
+            this.captureCrashes = captureCrashes;
+            return this;
+        }
+
+        /**
+         * Time in milliseconds the crash handler may spend collecting the pending logs; the logs
+         * it has not got to by then are lost. Default is 50 ms.
+         */
+        public Builder crashFlushBudgetMs(long crashFlushBudgetMs) {
+            if (crashFlushBudgetMs <= 0) {
+                throw new IllegalArgumentException("crashFlushBudgetMs must be greater than zero");
+            }
+            this.crashFlushBudgetMs = crashFlushBudgetMs;
+            return this;
+        }
+
+        public LoggerConfig build() {
+            if (useUdp && (!useDataHub || useSsl || useHttpPost)) {
+                throw new IllegalArgumentException("UDP can only be used with the DataHub, without SSL and HTTP POST");
+            }
+            return new LoggerConfig(this);
+        }
+    }
+}
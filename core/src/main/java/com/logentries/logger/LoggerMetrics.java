@@ -0,0 +1,169 @@
+package com.logentries.logger;
+
+import com.logentries.net.TransportStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing what the logger has been doing. All values are cumulative since the
+ * logger has been created, except for the current memory budget.
+ */
+public class LoggerMetrics {
+
+    private final AtomicLong trimMemoryRequests = new AtomicLong();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong spilledEvents = new AtomicLong();
+    private final AtomicLong bufferReleases = new AtomicLong();
+    private final AtomicLong lostEvents = new AtomicLong();
+    private volatile int memoryBudget;
+    private final AtomicLong encodedBatches = new AtomicLong();
+    private final AtomicLong encodeTimeNanos = new AtomicLong();
+    private final AtomicLong sequencerWaitNanos = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong sendTimeNanos = new AtomicLong();
+    private final TransportStats transportStats = new TransportStats();
+
+    LoggerMetrics(int memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Number of trim memory requests received from the system.
+     */
+    public long getTrimMemoryRequests() {
+        return trimMemoryRequests.get();
+    }
+
+    /**
+     * Number of times the queued events have been spilled to the local storage because of
+     * memory pressure.
+     */
+    public long getSpills() {
+        return spills.get();
+    }
+
+    /**
+     * Total number of events spilled to the local storage because of memory pressure.
+     */
+    public long getSpilledEvents() {
+        return spilledEvents.get();
+    }
+
+    /**
+     * Number of times the buffers kept for reuse have been released.
+     */
+    public long getBufferReleases() {
+        return bufferReleases.get();
+    }
+
+    /**
+     * Number of events lost - dropped because the queue was full, or lost with the local storage.
+     * Each loss is also reported in a gap record.
+     */
+    public long getLostEvents() {
+        return lostEvents.get();
+    }
+
+    /**
+     * Max. number of events kept in memory before they are spilled to the local storage. Lower
+     * than the queue size while the device is short of memory.
+     */
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Number of batches encoded by the encoder threads.
+     */
+    public long getEncodedBatches() {
+        return encodedBatches.get();
+    }
+
+    /**
+     * Total time in nanoseconds the encoder threads have spent formatting and encoding batches.
+     */
+    public long getEncodeTimeNanos() {
+        return encodeTimeNanos.get();
+    }
+
+    /**
+     * Total time in nanoseconds the socket appender has spent waiting for the next batch in
+     * order to be encoded.
+     */
+    public long getSequencerWaitNanos() {
+        return sequencerWaitNanos.get();
+    }
+
+    /**
+     * Number of batches written to the network.
+     */
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    /**
+     * Total time in nanoseconds spent writing batches to the network (including formatting them
+     * unless the encoder threads are used).
+     */
+    public long getSendTimeNanos() {
+        return sendTimeNanos.get();
+    }
+
+    /**
+     * Send counters of the network transport.
+     */
+    public TransportStats getTransportStats() {
+        return transportStats;
+    }
+
+    void onTrimMemoryRequest() {
+        trimMemoryRequests.incrementAndGet();
+    }
+
+    void onSpill(int events) {
+        spills.incrementAndGet();
+        spilledEvents.addAndGet(events);
+    }
+
+    void onLost(long events) {
+        lostEvents.addAndGet(events);
+    }
+
+    void onBufferRelease() {
+        bufferReleases.incrementAndGet();
+    }
+
+    void onBatchEncoded(long nanos) {
+        encodedBatches.incrementAndGet();
+        encodeTimeNanos.addAndGet(nanos);
+    }
+
+    void onSequencerWait(long nanos) {
+        sequencerWaitNanos.addAndGet(nanos);
+    }
+
+    void onBatchSent(long nanos) {
+        sentBatches.incrementAndGet();
+        sendTimeNanos.addAndGet(nanos);
+    }
+
+    void setMemoryBudget(int memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    @Override
+    public String toString() {
+        return "LoggerMetrics{trimMemoryRequests=" + getTrimMemoryRequests() +
+                ", spills=" + getSpills() +
+                ", spilledEvents=" + getSpilledEvents() +
+                ", bufferReleases=" + getBufferReleases() +
+                ", lostEvents=" + getLostEvents() +
+                ", memoryBudget=" + getMemoryBudget() +
+                ", encodedBatches=" + getEncodedBatches() +
+                ", encodeTimeNanos=" + getEncodeTimeNanos() +
+                ", sequencerWaitNanos=" + getSequencerWaitNanos() +
+                ", sentBatches=" + getSentBatches() +
+                ", sendTimeNanos=" + getSendTimeNanos() +
+                ", transport=" + transportStats + "}";
+    }
+}
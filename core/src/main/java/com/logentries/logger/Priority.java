@@ -0,0 +1,18 @@
+package com.logentries.logger;
+
+/**
+ * Priorities of the log events - the same values as the android.util.Log ones, so either can be
+ * passed to the logger.
+ */
+public final class Priority {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private Priority() {
+    }
+}
@@ -0,0 +1,544 @@
+package com.logentries.logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the heaviest sources of log events - by number of events and by bytes - in a fixed
+ * amount of memory, using the space-saving algorithm. A source is the tag of a structured message
+ * or the template of a plain one: its first characters with each run of digits masked, so
+ * "Took 15 ms" and "Took 230 ms" count as the same source.
+ *
+ * <p>The counts are approximate: a source that took over an evicted slot inherits its count, so it
+ * may be overestimated by up to {@link Source#getMaxError()} events. Sources are told apart by the
+ * hash of their key only. The slots are found through a hash index and kept in Stream-Summary
+ * buckets ordered by count, so recording an event takes constant time.</p>
+ */
+public class SourceProfiler {
+
+    /**
+     * Receives the periodic reports of the profiler.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the logger's own thread - must not block.
+         */
+        void onReport(Report report);
+    }
+
+    /**
+     * A source and its (approximate) volume since the previous report.
+     */
+    public static class Source {
+
+        private final String key;
+        private final long events;
+        private final long bytes;
+        private final long maxError;
+        private final long droppedEvents;
+
+        Source(String key, long events, long bytes, long maxError, long droppedEvents) {
+            this.key = key;
+            this.events = events;
+            this.bytes = bytes;
+            this.maxError = maxError;
+            this.droppedEvents = droppedEvents;
+        }
+
+        /**
+         * The tag or the message template of the source.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * Approximate size of the events - in characters for the strings, in bytes for the
+         * pre-encoded lines.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Max. number of the events counted for this source which may actually belong to others.
+         */
+        public long getMaxError() {
+            return maxError;
+        }
+
+        /**
+         * Number of the events of this source dropped because the queue was full.
+         */
+        public long getDroppedEvents() {
+            return droppedEvents;
+        }
+
+        @Override
+        public String toString() {
+            return key + ": events=" + events + (maxError > 0 ? " (-" + maxError + ")" : "") + ", bytes=" + bytes +
+                    (droppedEvents > 0 ? ", dropped=" + droppedEvents : "");
+        }
+    }
+
+    /**
+     * The top sources over a reporting interval.
+     */
+    public static class Report {
+
+        private final long startTime;
+        private final long endTime;
+        private final long totalEvents;
+        private final long totalBytes;
+        private final long droppedEvents;
+        private final List<Source> sources;
+
+        Report(long startTime, long endTime, long totalEvents, long totalBytes, long droppedEvents,
+               List<Source> sources) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.totalEvents = totalEvents;
+            this.totalBytes = totalBytes;
+            this.droppedEvents = droppedEvents;
+            this.sources = sources;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getTotalEvents() {
+            return totalEvents;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * Number of events dropped because the queue was full.
+         */
+        public long getDroppedEvents() {
+            return droppedEvents;
+        }
+
+        /**
+         * The heaviest sources by number of events, the heaviest first.
+         */
+        public List<Source> getSources() {
+            return sources;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Top log sources in the last ").append((endTime - startTime) / 1000).append(" s (")
+                    .append(totalEvents).append(" events, ").append(totalBytes).append(" bytes, ")
+                    .append(droppedEvents).append(" dropped):");
+            for (int i = 0; i < sources.size(); ++i) {
+                sb.append(i == 0 ? " " : "; ").append('[').append(i + 1).append("] ").append(sources.get(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Number of characters of a message used as its template.
+     */
+    private static final int TEMPLATE_LENGTH = 48;
+
+    /**
+     * The slots kept per reported source - more slots make the top of the list more accurate.
+     */
+    private static final int SLOTS_PER_SOURCE = 4;
+
+    private static final String MULTI_LINE_SOURCE = "<multi-line>";
+    private static final String UTF8_SOURCE = "<utf-8 lines>";
+
+    private static final int NONE = -1;
+
+    private final int topK;
+    private final long reportIntervalMs;
+
+    // The space-saving slots; slots 0..usedSlots-1 are in use.
+    private final int[] hashes;
+    private final String[] keys;
+    private final long[] events;
+    private final long[] bytes;
+    private final long[] errors;
+    private final long[] drops;
+    private int usedSlots = 0;
+
+    // Open addressing index of the slots by hash (linear probing) - slot + 1, 0 if empty.
+    private final int[] index;
+
+    // Stream-Summary: the slots are grouped in buckets of equal counts, kept in a list in ascending
+    // order of their counts, so both counting an event and finding the lightest source take O(1).
+    private final int[] slotBucket;
+    private final int[] slotPrev;
+    private final int[] slotNext;
+    private final long[] bucketCount;
+    private final int[] bucketHead;
+    private final int[] bucketPrev;
+    private final int[] bucketNext;
+    private int minBucket = NONE;
+    private int freeBucket = NONE;
+
+    private long totalEvents = 0;
+    private long totalBytes = 0;
+    private long droppedEvents = 0;
+    private long intervalStart;
+    private volatile long nextReportTime;
+
+    public SourceProfiler(int topK, long reportIntervalMs) {
+        if (topK <= 0) {
+            throw new IllegalArgumentException("topK must be greater than zero");
+        }
+        if (reportIntervalMs <= 0) {
+            throw new IllegalArgumentException("reportIntervalMs must be greater than zero");
+        }
+
+        this.topK = topK;
+        this.reportIntervalMs = reportIntervalMs;
+
+        int slots = topK * SLOTS_PER_SOURCE;
+        hashes = new int[slots];
+        keys = new String[slots];
+        events = new long[slots];
+        bytes = new long[slots];
+        errors = new long[slots];
+        drops = new long[slots];
+        index = new int[Integer.highestOneBit(slots) * 4];
+
+        slotBucket = new int[slots];
+        slotPrev = new int[slots];
+        slotNext = new int[slots];
+        bucketCount = new long[slots];
+        bucketHead = new int[slots];
+        bucketPrev = new int[slots];
+        bucketNext = new int[slots];
+        resetSlots();
+
+        intervalStart = System.currentTimeMillis();
+        nextReportTime = intervalStart + reportIntervalMs;
+    }
+
+    /**
+     * Counts the event against its source.
+     */
+    public void record(LogEvent event) {
+        String text = sourceText(event);
+        int hash = templateHash(text);
+        int size = event.getSize();
+
+        synchronized (this) {
+            totalEvents++;
+            totalBytes += size;
+
+            int slot = find(hash);
+            if (slot != NONE) {
+                bytes[slot] += size;
+                increment(slot);
+            } else if (usedSlots < keys.length) {
+                slot = usedSlots++;
+                take(slot, hash, text, size, 0);
+                addToFirstBucket(slot);
+            } else {
+                // Evict the lightest source - the newcomer inherits its count as the error.
+                slot = bucketHead[minBucket];
+                removeFromIndex(hashes[slot]);
+                take(slot, hash, text, size, events[slot]);
+                increment(slot);
+            }
+        }
+    }
+
+    /**
+     * Counts an event dropped because the queue was full, against its source if it is tracked.
+     */
+    public void recordDrop(LogEvent event) {
+        int hash = templateHash(sourceText(event));
+        synchronized (this) {
+            droppedEvents++;
+            int slot = find(hash);
+            if (slot != NONE) {
+                drops[slot]++;
+            }
+        }
+    }
+
+    public boolean isReportDue(long now) {
+        return now >= nextReportTime;
+    }
+
+    public long getNextReportTime() {
+        return nextReportTime;
+    }
+
+    /**
+     * Returns true if anything has been recorded since the previous report.
+     */
+    public synchronized boolean hasData() {
+        return totalEvents > 0 || droppedEvents > 0;
+    }
+
+    /**
+     * Returns the top sources since the previous report and starts a new interval.
+     */
+    public synchronized Report takeReport(long now) {
+        List<Source> sources = new ArrayList<Source>();
+        for (int bucket = lastBucket(); bucket != NONE && sources.size() < topK; bucket = bucketPrev[bucket]) {
+            for (int slot = bucketHead[bucket]; slot != NONE && sources.size() < topK; slot = slotNext[slot]) {
+                sources.add(new Source(keys[slot], events[slot], bytes[slot], errors[slot], drops[slot]));
+            }
+        }
+
+        Report report = new Report(intervalStart, now, totalEvents, totalBytes, droppedEvents,
+                Collections.unmodifiableList(sources));
+
+        resetSlots();
+        totalEvents = 0;
+        totalBytes = 0;
+        droppedEvents = 0;
+        intervalStart = now;
+        nextReportTime = now + reportIntervalMs;
+        return report;
+    }
+
+    private static String sourceText(LogEvent event) {
+        StructuredMessage structured = event.getStructured();
+        String text;
+        if (structured != null) {
+            text = structured.getTag() != null ? structured.getTag() : structured.getMessage();
+        } else if (event.getMessage() != null) {
+            text = event.getMessage();
+        } else {
+            text = event.isUtf8() ? UTF8_SOURCE : MULTI_LINE_SOURCE;
+        }
+        return text != null ? text : "";
+    }
+
+    private void take(int slot, int hash, String text, int size, long error) {
+        hashes[slot] = hash;
+        keys[slot] = template(text);
+        events[slot] = error;
+        bytes[slot] = size;
+        errors[slot] = error;
+        drops[slot] = 0;
+        addToIndex(hash, slot);
+    }
+
+    private void resetSlots() {
+        for (int i = 0; i < usedSlots; ++i) {
+            keys[i] = null;
+        }
+        usedSlots = 0;
+        Arrays.fill(index, 0);
+        minBucket = NONE;
+        freeBucket = NONE;
+        for (int bucket = bucketNext.length - 1; bucket >= 0; --bucket) {
+            bucketNext[bucket] = freeBucket;
+            freeBucket = bucket;
+        }
+    }
+
+    // Stream-Summary buckets.
+
+    /**
+     * Adds the slot with a count of 1.
+     */
+    private void addToFirstBucket(int slot) {
+        events[slot] = 1;
+        int bucket = minBucket;
+        if (bucket == NONE || bucketCount[bucket] != 1) {
+            bucket = newBucket(1, NONE, minBucket);
+        }
+        link(slot, bucket);
+    }
+
+    /**
+     * Increments the count of the slot, moving it to the next bucket.
+     */
+    private void increment(int slot) {
+        int bucket = slotBucket[slot];
+        long count = ++events[slot];
+        int next = bucketNext[bucket];
+
+        if (next != NONE && bucketCount[next] == count) {
+            unlink(slot);
+            link(slot, next);
+        } else if (bucketHead[bucket] == slot && slotNext[slot] == NONE) {
+            // The only slot of its bucket - the bucket keeps its place in the list.
+            bucketCount[bucket] = count;
+        } else {
+            unlink(slot);
+            link(slot, newBucket(count, bucket, next));
+        }
+    }
+
+    private int newBucket(long count, int prev, int next) {
+        int bucket = freeBucket;
+        freeBucket = bucketNext[bucket];
+        bucketCount[bucket] = count;
+        bucketHead[bucket] = NONE;
+        bucketPrev[bucket] = prev;
+        bucketNext[bucket] = next;
+        if (prev != NONE) {
+            bucketNext[prev] = bucket;
+        } else {
+            minBucket = bucket;
+        }
+        if (next != NONE) {
+            bucketPrev[next] = bucket;
+        }
+        return bucket;
+    }
+
+    private void link(int slot, int bucket) {
+        int head = bucketHead[bucket];
+        slotBucket[slot] = bucket;
+        slotPrev[slot] = NONE;
+        slotNext[slot] = head;
+        if (head != NONE) {
+            slotPrev[head] = slot;
+        }
+        bucketHead[bucket] = slot;
+    }
+
+    /**
+     * Removes the slot from its bucket, freeing the bucket if it gets empty.
+     */
+    private void unlink(int slot) {
+        int bucket = slotBucket[slot];
+        int prev = slotPrev[slot];
+        int next = slotNext[slot];
+        if (prev != NONE) {
+            slotNext[prev] = next;
+        } else {
+            bucketHead[bucket] = next;
+        }
+        if (next != NONE) {
+            slotPrev[next] = prev;
+        }
+
+        if (bucketHead[bucket] == NONE) {
+            int prevBucket = bucketPrev[bucket];
+            int nextBucket = bucketNext[bucket];
+            if (prevBucket != NONE) {
+                bucketNext[prevBucket] = nextBucket;
+            } else {
+                minBucket = nextBucket;
+            }
+            if (nextBucket != NONE) {
+                bucketPrev[nextBucket] = prevBucket;
+            }
+            bucketNext[bucket] = freeBucket;
+            freeBucket = bucket;
+        }
+    }
+
+    private int lastBucket() {
+        int bucket = minBucket;
+        while (bucket != NONE && bucketNext[bucket] != NONE) {
+            bucket = bucketNext[bucket];
+        }
+        return bucket;
+    }
+
+    // Hash index.
+
+    private int find(int hash) {
+        int mask = index.length - 1;
+        for (int i = home(hash, mask); index[i] != 0; i = (i + 1) & mask) {
+            int slot = index[i] - 1;
+            if (hashes[slot] == hash) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    private void addToIndex(int hash, int slot) {
+        int mask = index.length - 1;
+        int i = home(hash, mask);
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    /**
+     * Removes the hash from the index, shifting back the entries of the probe sequence after it.
+     */
+    private void removeFromIndex(int hash) {
+        int mask = index.length - 1;
+        int i = home(hash, mask);
+        while (hashes[index[i] - 1] != hash) {
+            i = (i + 1) & mask;
+        }
+
+        for (int j = (i + 1) & mask; index[j] != 0; j = (j + 1) & mask) {
+            int home = home(hashes[index[j] - 1], mask);
+            // The entry at j can fill the hole at i unless its home lies cyclically within (i, j].
+            boolean stays = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!stays) {
+                index[i] = index[j];
+                i = j;
+            }
+        }
+        index[i] = 0;
+    }
+
+    private static int home(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B1 >>> 8 & mask;
+    }
+
+    /**
+     * Hashes the template of the text - see {@link #template}.
+     */
+    private static int templateHash(String text) {
+        int hash = 0;
+        int length = Math.min(text.length(), TEMPLATE_LENGTH);
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                hash = 31 * hash + c;
+            } else if (i == 0 || !isDigit(text.charAt(i - 1))) {
+                hash = 31 * hash + '#';
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the first characters of the text with each run of digits replaced by a single '#'.
+     */
+    private static String template(String text) {
+        int length = Math.min(text.length(), TEMPLATE_LENGTH);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                sb.append(c);
+            } else if (i == 0 || !isDigit(text.charAt(i - 1))) {
+                sb.append('#');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
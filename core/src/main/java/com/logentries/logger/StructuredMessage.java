@@ -0,0 +1,166 @@
+package com.logentries.logger;
+
+import com.logentries.misc.Utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+
+/**
+ * Log message with its metadata (priority, tag, thread, exception and custom fields) kept as
+ * separate values. It is rendered to a single JSON line only when it is about to be sent, so
+ * the calling thread pays for nothing but the allocation of the message itself.
+ */
+public class StructuredMessage {
+
+    // Names of the priorities, indexed by the Priority constants.
+    private static final String[] PRIORITY_NAMES = {
+            "UNKNOWN", "UNKNOWN", "VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "ASSERT"
+    };
+
+    // Messages are rendered on the socket appender (or encoder) threads - one buffer per thread is enough.
+    private static final ThreadLocal<StringBuilder> renderBuffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final int priority;
+    private final String tag;
+    private final String message;
+    private final String threadName;
+    private final Throwable thrown;
+    private final Map<String, String> fields;
+
+    /**
+     * @param priority one of {@link Priority} constants.
+     * @param tag      the tag or the name of the logger; may be null.
+     * @param message  the message; may be null.
+     * @param thrown   the exception to be logged with the message; may be null.
+     * @param fields   custom fields; may be null. The map is not copied.
+     */
+    public StructuredMessage(int priority, String tag, String message, Throwable thrown, Map<String, String> fields) {
+        this.priority = priority;
+        this.tag = tag;
+        this.message = message;
+        this.threadName = Thread.currentThread().getName();
+        this.thrown = thrown;
+        this.fields = fields;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Throwable getThrown() {
+        return thrown;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the approximate size of the rendered message encoded in UTF-8, without rendering it.
+     */
+    public int estimateSize() {
+        int size = 64;
+        size += tag != null ? Utils.utf8Length(tag) : 0;
+        size += message != null ? Utils.utf8Length(message) : 0;
+        size += thrown != null ? 1024 : 0;
+        if (fields != null) {
+            size += fields.size() * 16;
+        }
+        return size;
+    }
+
+    /**
+     * Renders the message as a JSON object:
+     * {"Level": "ERROR", "Tag": "...", "Thread": "...", "Message": "...", "Exception": "...", ...fields}.
+     */
+    public String render() {
+        StringBuilder sb = renderBuffer.get();
+        sb.setLength(0);
+
+        sb.append("{\"Level\": ");
+        appendQuoted(sb, priority >= Priority.VERBOSE && priority <= Priority.ASSERT ?
+                PRIORITY_NAMES[priority] : Integer.toString(priority));
+        if (tag != null) {
+            sb.append(", \"Tag\": ");
+            appendQuoted(sb, tag);
+        }
+        sb.append(", \"Thread\": ");
+        appendQuoted(sb, threadName);
+        if (message != null) {
+            sb.append(", \"Message\": ");
+            appendQuoted(sb, message);
+        }
+        if (thrown != null) {
+            StringWriter stackTrace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(stackTrace));
+            sb.append(", \"Exception\": ");
+            appendQuoted(sb, stackTrace.toString());
+        }
+        if (fields != null) {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                sb.append(", ");
+                appendQuoted(sb, field.getKey());
+                sb.append(": ");
+                appendQuoted(sb, field.getValue());
+            }
+        }
+        sb.append('}');
+
+        String rendered = sb.toString();
+        if (sb.capacity() > 64 * 1024) {
+            // Don't keep a huge buffer around because of a single huge message.
+            renderBuffer.remove();
+        }
+        return rendered;
+    }
+
+    private static void appendQuoted(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
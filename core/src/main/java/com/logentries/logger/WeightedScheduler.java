@@ -0,0 +1,27 @@
+package com.logentries.logger;
+
+/**
+ * Weighted round-robin between the live traffic and the backlog of the previous sessions: while
+ * both have messages to send, liveWeight live messages are sent per backlogWeight backlog ones.
+ */
+class WeightedScheduler {
+
+    private final int liveWeight;
+    private final int roundLength;
+    private int slot = 0;
+
+    WeightedScheduler(int liveWeight, int backlogWeight) {
+        this.liveWeight = liveWeight;
+        this.roundLength = liveWeight + backlogWeight;
+    }
+
+    /**
+     * Returns true if the next message should be taken from the live traffic, false if from
+     * the backlog.
+     */
+    boolean nextIsLive() {
+        boolean live = slot < liveWeight;
+        slot = (slot + 1) % roundLength;
+        return live;
+    }
+}
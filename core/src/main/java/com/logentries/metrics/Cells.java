@@ -0,0 +1,79 @@
+package com.logentries.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Striped long cells: every thread updates the stripe it has been assigned to, so concurrent
+ * updates from different threads rarely touch the same cache line. Reads sum all the stripes.
+ */
+class Cells {
+
+    // Spread the stripes so that they don't share cache lines (8 longs = 64 bytes).
+    private static final int PADDING = 8;
+
+    private static final AtomicInteger nextProbe = new AtomicInteger();
+
+    private static final ThreadLocal<Integer> probe = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return nextProbe.getAndIncrement();
+        }
+    };
+
+    /**
+     * Number of stripes - the number of CPUs rounded up to a power of two, at most 4.
+     */
+    static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int cpus = Math.min(4, Runtime.getRuntime().availableProcessors());
+        while (stripes < cpus) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final int width;
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    /**
+     * @param width number of cells per stripe.
+     */
+    Cells(int width) {
+        this.width = width;
+        this.stride = (width + PADDING - 1) / PADDING * PADDING;
+        this.cells = new AtomicLongArray(stride * STRIPES);
+    }
+
+    /**
+     * Returns the stripe of the calling thread.
+     */
+    static int stripe() {
+        return probe.get() & (STRIPES - 1);
+    }
+
+    void add(int stripe, int cell, long delta) {
+        cells.getAndAdd(stripe * stride + cell, delta);
+    }
+
+    /**
+     * Returns the sum of the cell over all the stripes and resets it to zero.
+     */
+    long sumThenReset(int cell) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; ++stripe) {
+            int index = stripe * stride + cell;
+            if (cells.get(index) != 0) {
+                sum += cells.getAndSet(index, 0);
+            }
+        }
+        return sum;
+    }
+
+    int width() {
+        return width;
+    }
+}
@@ -0,0 +1,33 @@
+package com.logentries.metrics;
+
+/**
+ * Counts occurrences of something. The count since the previous flush is reported.
+ */
+public class Counter {
+
+    private final String name;
+    private final Cells cells = new Cells(1);
+    private final MetricRegistry registry;
+
+    Counter(String name, MetricRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        increment(1);
+    }
+
+    public void increment(long delta) {
+        cells.add(Cells.stripe(), 0, delta);
+        registry.onUpdate();
+    }
+
+    long sumThenReset() {
+        return cells.sumThenReset(0);
+    }
+}
@@ -0,0 +1,43 @@
+package com.logentries.metrics;
+
+/**
+ * Holds the current value of something, e.g. a queue length. The last value set before the
+ * flush is reported, if it has been set since the previous flush.
+ */
+public class Gauge {
+
+    private final String name;
+    private volatile long value = 0;
+    private volatile boolean changed = false;
+    private final MetricRegistry registry;
+
+    Gauge(String name, MetricRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void set(long value) {
+        this.value = value;
+        this.changed = true;
+        registry.onUpdate();
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Returns whether the gauge has been set since the previous call.
+     */
+    boolean takeChanged() {
+        if (!changed) {
+            return false;
+        }
+        changed = false;
+        return true;
+    }
+}
@@ -0,0 +1,210 @@
+package com.logentries.metrics;
+
+/**
+ * Records the distribution of values such as latencies, HDR-style: values below 32 are counted
+ * exactly, larger ones in log-linear buckets (16 per power of two), so every value is
+ * tracked with a relative error below 6.25%. Values are expected to be non-negative; negative
+ * ones are counted as 0 and values above 2^41 as 2^41.
+ *
+ * <p>The memory taken does not depend on the number of values recorded, and the snapshots
+ * of different histograms (e.g. of several devices) can be merged.</p>
+ */
+public class Histogram {
+
+    private static final int LINEAR_BUCKETS = 32;            // Values 0..31 are counted exactly.
+    private static final int SUB_BUCKETS = 16;               // Buckets per power of two above that.
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int MIN_EXPONENT = 5;               // 2^5 = LINEAR_BUCKETS.
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    // The last cell of every stripe holds the sum of the values.
+    private static final int SUM_CELL = BUCKETS;
+
+    /**
+     * Counts of the values per bucket since the previous flush.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the smallest recorded value (rounded down to its bucket), or 0 if there are none.
+         */
+        public long getMin() {
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] != 0) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the largest recorded value (rounded up to its bucket), or 0 if there are none.
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; --i) {
+                if (counts[i] != 0) {
+                    return upperBound(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the values fall (rounded up
+         * to its bucket).
+         *
+         * @param percentile between 0 and 100.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Returns the non-empty buckets as "lowerBound:count" pairs separated by commas, in ascending
+         * order - what is sent in the summary event, so that the histograms can be merged and
+         * their percentiles computed on the server side.
+         */
+        public String getBucketCounts() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < counts.length; ++i) {
+                if (counts[i] != 0) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(lowerBound(i)).append(':').append(counts[i]);
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Returns a snapshot holding the values of both snapshots.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; ++i) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, sum + other.sum);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + Math.round(getMean()) + " min=" + getMin() +
+                    " p50=" + getPercentile(50) + " p90=" + getPercentile(90) + " p99=" + getPercentile(99) +
+                    " max=" + getMax();
+        }
+    }
+
+    private final String name;
+    private final Cells cells = new Cells(BUCKETS + 1);
+    private final MetricRegistry registry; // Null for a standalone histogram.
+
+    Histogram(String name) {
+        this(name, null);
+    }
+
+    Histogram(String name, MetricRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+
+        int stripe = Cells.stripe();
+        cells.add(stripe, bucketIndex(value), 1);
+        cells.add(stripe, SUM_CELL, value);
+        if (registry != null) {
+            registry.onUpdate();
+        }
+    }
+
+    /**
+     * Returns the values recorded since the previous call and starts counting anew. A value recorded
+     * concurrently may land in the next snapshot with its sum in this one, or vice versa.
+     */
+    Snapshot snapshotThenReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = cells.sumThenReset(i);
+        }
+        return new Snapshot(counts, cells.sumThenReset(SUM_CELL));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = MIN_EXPONENT + (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = MIN_EXPONENT + (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+        return lowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.logentries.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the counters, gauges and histograms of the application, aggregating their values on
+ * the device. Every flush interval, all of them are sent as a single summary event instead
+ * of one event per measurement.
+ */
+public class MetricRegistry {
+
+    private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+    private final long flushIntervalMs;
+    private volatile long nextFlushTime;
+
+    /**
+     * Set by the metric updates, cleared by the flush - so that nothing is scheduled while the
+     * metrics are idle.
+     */
+    private volatile boolean pendingData = false;
+    private final Runnable pendingDataListener;
+
+    public MetricRegistry(long flushIntervalMs) {
+        this(flushIntervalMs, null);
+    }
+
+    /**
+     * @param flushIntervalMs     time between the summaries, in milliseconds.
+     * @param pendingDataListener called when a metric is updated for the first time since the
+     *                            previous flush, e.g. to schedule the next one; may be null.
+     */
+    public MetricRegistry(long flushIntervalMs, Runnable pendingDataListener) {
+        if (flushIntervalMs <= 0) {
+            throw new IllegalArgumentException("flushIntervalMs must be greater than zero");
+        }
+        this.flushIntervalMs = flushIntervalMs;
+        this.nextFlushTime = System.currentTimeMillis() + flushIntervalMs;
+        this.pendingDataListener = pendingDataListener;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     */
+    public Counter counter(String name) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new Counter(name, this));
+        }
+        return cast(name, metric, Counter.class);
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it if needed.
+     */
+    public Gauge gauge(String name) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new Gauge(name, this));
+        }
+        return cast(name, metric, Gauge.class);
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     */
+    public Histogram histogram(String name) {
+        Object metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new Histogram(name, this));
+        }
+        return cast(name, metric, Histogram.class);
+    }
+
+    public boolean isEmpty() {
+        return metrics.isEmpty();
+    }
+
+    /**
+     * Returns true if any metric has been updated since the previous flush.
+     */
+    public boolean hasPendingData() {
+        return pendingData;
+    }
+
+    public boolean isFlushDue(long now) {
+        return now >= nextFlushTime;
+    }
+
+    public long getNextFlushTime() {
+        return nextFlushTime;
+    }
+
+    /**
+     * Collects the values since the previous flush: the counts of the counters, the values of
+     * the gauges which have been set, and the count, sum and bucket counts (as "name.count",
+     * "name.sum" and "name.buckets", see {@link Histogram.Snapshot#getBucketCounts()}) of the
+     * histograms which have recorded values.
+     *
+     * @return the values by metric name, or an empty map if there is nothing to report.
+     */
+    public synchronized Map<String, String> flush(long now) {
+        nextFlushTime = now + flushIntervalMs;
+        // Cleared before the values are taken - an update racing with the flush is reported next time.
+        pendingData = false;
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                long count = ((Counter) metric).sumThenReset();
+                if (count != 0) {
+                    values.put(entry.getKey(), Long.toString(count));
+                }
+            } else if (metric instanceof Gauge) {
+                Gauge gauge = (Gauge) metric;
+                if (gauge.takeChanged()) {
+                    values.put(entry.getKey(), Long.toString(gauge.getValue()));
+                }
+            } else {
+                Histogram.Snapshot snapshot = ((Histogram) metric).snapshotThenReset();
+                if (snapshot.getCount() != 0) {
+                    values.put(entry.getKey() + ".count", Long.toString(snapshot.getCount()));
+                    values.put(entry.getKey() + ".sum", Long.toString(snapshot.getSum()));
+                    values.put(entry.getKey() + ".buckets", snapshot.getBucketCounts());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Called by the metrics after each update. Once the metrics have been idle for longer than the
+     * flush interval, the interval starts over with the first update.
+     */
+    void onUpdate() {
+        if (pendingData) {
+            return;
+        }
+        pendingData = true;
+        long now = System.currentTimeMillis();
+        if (nextFlushTime < now) {
+            nextFlushTime = now + flushIntervalMs;
+        }
+        if (pendingDataListener != null) {
+            pendingDataListener.run();
+        }
+    }
+
+    private Object register(String name, Object metric) {
+        Object existing = metrics.putIfAbsent(name, metric);
+        return existing != null ? existing : metric;
+    }
+
+    private static <T> T cast(String name, Object metric, Class<T> type) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " +
+                    metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+}
@@ -0,0 +1,41 @@
+package com.logentries.misc;
+
+import com.logentries.logger.Priority;
+import com.logentries.spi.Diagnostics;
+
+/**
+ * Reports the logger's own problems to the {@link Diagnostics} of the platform - standard error
+ * until the platform sets its own.
+ */
+public class InternalLog {
+
+    /**
+     * Prints the messages of WARN priority and above to standard error.
+     */
+    public static final Diagnostics STDERR = new Diagnostics() {
+        @Override
+        public void println(int priority, String tag, String message) {
+            if (priority >= Priority.WARN) {
+                System.err.println(tag + ": " + message);
+            }
+        }
+    };
+
+    private static volatile Diagnostics diagnostics = STDERR;
+
+    public static void setDiagnostics(Diagnostics diagnostics) {
+        InternalLog.diagnostics = diagnostics != null ? diagnostics : STDERR;
+    }
+
+    public static void d(String tag, String message) {
+        diagnostics.println(Priority.DEBUG, tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        diagnostics.println(Priority.WARN, tag, message);
+    }
+
+    public static void e(String tag, String message) {
+        diagnostics.println(Priority.ERROR, tag, message);
+    }
+}
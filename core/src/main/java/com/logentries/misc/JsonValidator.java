@@ -0,0 +1,201 @@
+package com.logentries.misc;
+
+/**
+ * Checks the JSON syntax of the messages sent via HTTP POST - a message which is valid JSON is
+ * embedded as it is, anything else as a string. A strict recursive-descent check, so the core
+ * does not depend on a JSON library.
+ */
+class JsonValidator {
+
+    /**
+     * Deeper documents are treated as not valid, rather than risking a stack overflow.
+     */
+    private static final int MAX_DEPTH = 256;
+
+    private final String text;
+    private int pos = 0;
+
+    private JsonValidator(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Returns true if the text is a JSON object or array, optionally surrounded by whitespace.
+     */
+    static boolean isObjectOrArray(String text) {
+        if (text == null) {
+            return false;
+        }
+
+        JsonValidator validator = new JsonValidator(text);
+        validator.skipWhitespace();
+        if (validator.pos >= text.length()) {
+            return false;
+        }
+        char first = text.charAt(validator.pos);
+        if (first != '{' && first != '[') {
+            return false;
+        }
+        if (!validator.value(0)) {
+            return false;
+        }
+        validator.skipWhitespace();
+        return validator.pos == text.length();
+    }
+
+    private boolean value(int depth) {
+        if (depth > MAX_DEPTH || pos >= text.length()) {
+            return false;
+        }
+
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return object(depth + 1);
+            case '[':
+                return array(depth + 1);
+            case '"':
+                return string();
+            case 't':
+                return literal("true");
+            case 'f':
+                return literal("false");
+            case 'n':
+                return literal("null");
+            default:
+                return number();
+        }
+    }
+
+    private boolean object(int depth) {
+        ++pos; // '{'
+        skipWhitespace();
+        if (consume('}')) {
+            return true;
+        }
+        while (true) {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != '"' || !string()) {
+                return false;
+            }
+            skipWhitespace();
+            if (!consume(':')) {
+                return false;
+            }
+            skipWhitespace();
+            if (!value(depth)) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume('}')) {
+                return true;
+            }
+            if (!consume(',')) {
+                return false;
+            }
+        }
+    }
+
+    private boolean array(int depth) {
+        ++pos; // '['
+        skipWhitespace();
+        if (consume(']')) {
+            return true;
+        }
+        while (true) {
+            skipWhitespace();
+            if (!value(depth)) {
+                return false;
+            }
+            skipWhitespace();
+            if (consume(']')) {
+                return true;
+            }
+            if (!consume(',')) {
+                return false;
+            }
+        }
+    }
+
+    private boolean string() {
+        ++pos; // '"'
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return true;
+            }
+            if (c < 0x20) {
+                return false;
+            }
+            if (c == '\\') {
+                if (pos >= text.length()) {
+                    return false;
+                }
+                char escaped = text.charAt(pos++);
+                if (escaped == 'u') {
+                    for (int i = 0; i < 4; ++i) {
+                        if (pos >= text.length() || Character.digit(text.charAt(pos++), 16) < 0) {
+                            return false;
+                        }
+                    }
+                } else if ("\"\\/bfnrt".indexOf(escaped) < 0) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean number() {
+        consume('-');
+        if (consume('0')) {
+            // No leading zeros.
+        } else if (!digits()) {
+            return false;
+        }
+        if (consume('.') && !digits()) {
+            return false;
+        }
+        if (consume('e') || consume('E')) {
+            if (!consume('+')) {
+                consume('-');
+            }
+            return digits();
+        }
+        return true;
+    }
+
+    private boolean digits() {
+        int start = pos;
+        while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+            ++pos;
+        }
+        return pos > start;
+    }
+
+    private boolean literal(String literal) {
+        if (!text.startsWith(literal, pos)) {
+            return false;
+        }
+        pos += literal.length();
+        return true;
+    }
+
+    private boolean consume(char c) {
+        if (pos < text.length() && text.charAt(pos) == c) {
+            ++pos;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            ++pos;
+        }
+    }
+}
@@ -1,154 +1,80 @@
 package com.logentries.misc;
 
-import android.os.Build;
-import android.util.Log;
-
-import java.lang.reflect.Method;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import com.logentries.jvm.JvmDeviceInfo;
+import com.logentries.spi.DeviceInfo;
+
 import java.util.ArrayList;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 public class Utils {
 
-    private static final String TAG = "LogentriesAndroidLogger";
-
     /**
      * Reg.ex. that is used to check correctness of HostName if it is defined by user
      */
     private static final Pattern HOSTNAME_REGEX = Pattern.compile("[$/\\\"&+,:;=?#|<>_* \\[\\]]");
 
-    private static String traceID = "";
-    private static String hostName = "";
+    private static volatile DeviceInfo deviceInfo = new JvmDeviceInfo();
 
-    // Requires at least API level 9 (v. >= 2.3).
-    static {
-        try {
-            traceID = computeTraceID();
-        } catch (NoSuchAlgorithmException ex) {
-            Log.e(TAG, "Cannot get traceID from device's properties!");
-            traceID = "unknown";
-        }
-
-        try {
-            hostName = getProp("net.hostname");
-            if (hostName.equals("")) { // We have failed to get the real host name
-                // so, use the default one.
-                hostName = InetAddress.getLocalHost().getHostName();
-            }
-        } catch (UnknownHostException e) {
-            // We cannot resolve local host name - so won't use it at all.
-        }
-    }
-
-    private static String getProp(String propertyName) {
-
-        if (propertyName == null || propertyName.isEmpty()) {
-            return "";
-        }
-
-        try {
-            Method getString = Build.class.getDeclaredMethod("getString", String.class);
-            getString.setAccessible(true);
-            return getString.invoke(null, propertyName).toString();
-        } catch (Exception ex) {
-            // Ignore the exception - we simply couldn't access the property;
-            Log.e(TAG, ex.getMessage());
-        }
-
-        return "";
+    /**
+     * Sets the source of the device metadata added to the events.
+     */
+    public static void setDeviceInfo(DeviceInfo deviceInfo) {
+        Utils.deviceInfo = deviceInfo;
     }
 
-    private static String computeTraceID() throws NoSuchAlgorithmException {
-
-        String fingerprint = getProp("ro.build.fingerprint");
-        String displayId = getProp("ro.build.display.id");
-        String hardware = getProp("ro.hardware");
-        String device = getProp("ro.product.device");
-        String rilImei = getProp("ril.IMEI");
-
-        MessageDigest hashGen = MessageDigest.getInstance("MD5");
-        byte[] digest = null;
-        if (fingerprint.isEmpty() & displayId.isEmpty() & hardware.isEmpty() & device.isEmpty() & rilImei.isEmpty()) {
-            Log.e(TAG, "Cannot obtain any of device's properties - will use default Trace ID source.");
-
-            Double randomTrace = Math.random() + Math.PI;
-            String defaultValue = randomTrace.toString();
-            randomTrace = Math.random() + Math.PI;
-            defaultValue += randomTrace.toString().replace(".", "");
-            // The code below fixes one strange bug, when call to a freshly installed app crashes at this
-            // point, because random() produces too short sequence. Note, that this behavior does not
-            // occur for the second and all further launches.
-            defaultValue = defaultValue.length() >= 36 ? defaultValue.substring(2, 34) :
-                    defaultValue.substring(2);
-
-            hashGen.update(defaultValue.getBytes());
-        } else {
-            StringBuilder sb = new StringBuilder();
-            sb.append(fingerprint).append(displayId).append(hardware).append(device).append(rilImei);
-            hashGen.update(sb.toString().getBytes());
-        }
-
-        digest = hashGen.digest();
-        StringBuilder conv = new StringBuilder();
-        for (byte b : digest) {
-            conv.append(String.format("%02x", b & 0xff).toUpperCase());
-        }
-
-        return conv.toString();
+    /**
+     * Loads the device metadata. This method may block (disk access and host name resolution),
+     * so it should be called from a background thread only.
+     */
+    public static void initMetadata() {
+        deviceInfo.load();
     }
 
     public static String getTraceID() {
-        return traceID;
+        return deviceInfo.getTraceId();
     }
 
-
     private static String getFormattedDeviceId(boolean toJSON) {
         if (toJSON) {
-            return "\"DeviceId\": \"" + Build.SERIAL + "\"";
+            return "\"DeviceId\": \"" + deviceInfo.getDeviceId() + "\"";
         }
-        return "DeviceId=" + Build.SERIAL;
+        return "DeviceId=" + deviceInfo.getDeviceId();
     }
 
     public static String getFormattedTraceID(boolean toJSON) {
         if (toJSON) {
-            return "\"TraceID\": \"" + traceID + "\"";
+            return "\"TraceID\": \"" + getTraceID() + "\"";
+        }
+        return "TraceID=" + getTraceID();
+    }
+
+    /**
+     * Formats the session ID and the sequence number of an event, e.g. "Session=... Seq=42".
+     */
+    public static String getFormattedSequence(String sessionId, long sequence, boolean toJSON) {
+        if (toJSON) {
+            return "\"Session\": \"" + sessionId + "\", \"Seq\": " + sequence;
         }
-        return "TraceID=" + traceID;
+        return "Session=" + sessionId + " Seq=" + sequence;
     }
 
     public static String getHostName() {
-        return hostName;
+        return deviceInfo.getHostName();
     }
 
     public static String getFormattedHostName(boolean toJSON) {
         if (toJSON) {
-            return "\"Host\": \"" + hostName + "\"";
+            return "\"Host\": \"" + getHostName() + "\"";
         }
-        return "Host=" + hostName;
+        return "Host=" + getHostName();
     }
 
     /**
-    *  Via http://stackoverflow.com/a/10174938
-    */
+     * Returns true if the message is a JSON object or array.
+     */
     public static boolean isJSONValid(String message) {
-        try {
-            new JSONObject(message);
-        } catch (JSONException ex) {
-            try {
-                new JSONArray(message);
-            } catch (JSONException ex1) {
-                return false;
-            }
-        }
-        return true;
+        return JsonValidator.isObjectOrArray(message);
     }
 
     /**
@@ -165,6 +91,15 @@ public class Utils {
      * @return
      */
     public static String formatMessage(String message, boolean logHostName, boolean isUsingHttp) {
+        return formatMessage(message, logHostName, isUsingHttp, null, -1);
+    }
+
+    /**
+     * Formats the message like {@link #formatMessage(String, boolean, boolean)}, adding the session ID
+     * and the sequence number of the event if it has been stamped (sessionId is not null).
+     */
+    public static String formatMessage(String message, boolean logHostName, boolean isUsingHttp,
+                                       String sessionId, long sequence) {
         StringBuilder sb = new StringBuilder();
 
         if (isUsingHttp) {
@@ -191,6 +126,11 @@ public class Utils {
             sb.append("Timestamp=").append(Long.toString(timestamp)).append(" ");
         }
 
+        if (sessionId != null) {
+            sb.append(getFormattedSequence(sessionId, sequence, isUsingHttp));
+            sb.append(isUsingHttp ? ", " : " ");
+        }
+
         // Append the event data
         if (isUsingHttp) {
             if (Utils.isJSONValid(message)) {
@@ -208,6 +148,29 @@ public class Utils {
         return sb.toString();
     }
 
+    /**
+     * Returns the length of the text encoded in UTF-8, without encoding it.
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 2; // 4 bytes for the pair.
+                ++i;
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
     public static boolean checkValidUUID(String uuid) {
         if (uuid != null && !uuid.isEmpty()) {
             try {
@@ -0,0 +1,461 @@
+package com.logentries.net;
+
+import com.logentries.jvm.UrlConnectionHttpTransport;
+import com.logentries.misc.InternalLog;
+import com.logentries.spi.HttpTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+public class LogentriesClient {
+    // Logentries server endpoints for logs data.
+    private static final String LE_TOKEN_API = "data.logentries.com"; // For token-based stream input
+
+    private static final String LE_HTTP_API = "http://webhook.logentries.com/noformat/logs/";   // For HTTP-based input.
+    private static final String LE_HTTPS_API = "https://webhook.logentries.com/noformat/logs/";   // For HTTP-based input.
+
+    // Port number for unencrypted HTTP PUT/Token TCP logging on Logentries server.
+    private static final int LE_PORT = 80;
+
+    // Port number for SSL HTTP PUT/TLS Token TCP logging on Logentries server.
+    private static final int LE_SSL_PORT = 443;
+
+    /**
+     * Default max. size of a UDP datagram payload - fits into a 1500 bytes Ethernet MTU
+     * together with the IPv4 and UDP headers.
+     */
+    public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1472;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SSLSocketFactory sslFactory;
+
+    private Socket socket;              // The socket, connected to the Token API endpoint (Token-based input only!)
+    private OutputStream stream;        // Data stream to the endpoint, where log messages go (Token-based input only!)
+
+    private HttpTransport httpTransport; // HTTP client, used for communicating with HTTP API endpoint.
+    private String postUrl;              // URL the data is posted to.
+
+    private String endpointToken;   // Token, that points to the exact endpoint - the log object, where the data goes.
+
+    private boolean sslChoice = false;  // Use SSL layering for the Socket?
+    private boolean httpChoice = false; // Use HTTP input instead of token-based stream input?
+    private boolean udpChoice = false;  // Send token-based input as UDP datagrams (DataHub only)?
+
+    // UDP-related attributes.
+    private DatagramSocket datagramSocket;
+    private byte[] datagramBuffer;
+    private int datagramLength = 0;
+    private int datagramLines = 0;      // Lines ending in the current datagram.
+    private byte[] tokenPrefix;         // UTF-8 encoded token followed by a space.
+
+    private static final byte[] EMPTY_PREFIX = new byte[0];
+
+    // The buffer used to assemble pre-encoded lines for Token-based input.
+    private ByteArrayOutputStream wireBuffer = new ByteArrayOutputStream();
+
+    private final TransportStats stats;
+    private long sentLines = 0;
+
+    // Datahub-related attributes.
+    private String dataHubServer = null;
+    private int dataHubPort = 0;
+    private boolean useDataHub = false;
+
+    // The formatter used to prepend logs with the endpoint token for Token-based input.
+    private StringBuilder streamFormatter = new StringBuilder();
+
+    public LogentriesClient(boolean useHttpPost, boolean useSsl, boolean isUsingDataHub, String server, int port,
+                            String token)
+            throws InstantiationException, IllegalArgumentException {
+        this(useHttpPost, useSsl, isUsingDataHub, false, server, port, token, DEFAULT_MAX_DATAGRAM_SIZE,
+                new TransportStats(), null);
+    }
+
+    /**
+     * @param useUdp          send the token-prefixed lines as UDP datagrams to the DataHub instead of
+     *                        using a TCP connection. Delivery is not guaranteed - lost datagrams are
+     *                        not detected. Several lines are packed into each datagram; a line which
+     *                        does not fit into a single datagram is split into several ones, each
+     *                        starting with the token.
+     * @param maxDatagramSize max. size of a UDP datagram payload, i.e. the path MTU minus the
+     *                        IP and UDP headers.
+     * @param stats           counters updated by the client.
+     * @param httpTransport   transport used with HTTP POST input; if null, a {@link UrlConnectionHttpTransport}.
+     */
+    public LogentriesClient(boolean useHttpPost, boolean useSsl, boolean isUsingDataHub, boolean useUdp, String server,
+                            int port, String token, int maxDatagramSize, TransportStats stats,
+                            HttpTransport httpTransport)
+            throws InstantiationException, IllegalArgumentException {
+
+        if (useUdp && (useHttpPost || useSsl || !isUsingDataHub)) {
+            throw new IllegalArgumentException("'useUdp' parameter can only be set to true if 'isUsingDataHub' " +
+                    "is set to true and both 'httpPost' and 'useSsl' are set to false.");
+        }
+
+        if (useHttpPost && isUsingDataHub) {
+            throw new IllegalArgumentException("'httpPost' parameter cannot be set to true if 'isUsingDataHub' " +
+                    "is set to true.");
+        }
+
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("Token parameter cannot be empty!");
+        }
+
+        useDataHub = isUsingDataHub;
+        sslChoice = useSsl;
+        httpChoice = useHttpPost;
+        udpChoice = useUdp;
+        endpointToken = token;
+        this.stats = stats;
+        if (useHttpPost) {
+            this.httpTransport = httpTransport != null ? httpTransport : new UrlConnectionHttpTransport();
+        }
+        tokenPrefix = (token + " ").getBytes(UTF8);
+
+        if (useUdp) {
+            if (maxDatagramSize <= tokenPrefix.length + 4) {
+                throw new InstantiationException("Datagram size " + maxDatagramSize + " is too small.");
+            }
+            datagramBuffer = new byte[maxDatagramSize];
+        }
+
+        if (useDataHub) {
+            if (server == null || server.isEmpty()) {
+                throw new InstantiationException("'server' parameter is mandatory if 'isUsingDatahub' parameter " +
+                        "is set to true.");
+            }
+            if (port <= 0 || port > 65535) {
+                throw new InstantiationException("Incorrect port number " + Integer.toString(port) + ". Port number must " +
+                        "be greater than zero and less than 65535.");
+            }
+            dataHubServer = server;
+            dataHubPort = port;
+        }
+        if (useSsl) {
+            try {
+                sslFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            } catch (Exception e) {
+                throw new InstantiationException("Cannot create LogentriesClient instance. Error: " + e.getMessage());
+            }
+        } else {
+            sslFactory = null;
+        }
+    }
+
+    public int getPort() {
+        if (useDataHub) {
+            return dataHubPort;
+        } else {
+            return sslChoice ? LE_SSL_PORT : LE_PORT;
+        }
+    }
+
+    public String getAddress() {
+        if (useDataHub) {
+            return dataHubServer;
+        } else {
+            if (httpChoice) {
+                return sslChoice ? LE_HTTPS_API : LE_HTTP_API;
+            }
+            return LE_TOKEN_API;
+        }
+    }
+
+    public TransportStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of lines sent by this client. A line counts once it has been written to
+     * the socket - for UDP, once the datagram holding its end has been sent - so after a failed
+     * write it tells how many of the lines have gone out before the failure.
+     */
+    public long getSentLines() {
+        return sentLines;
+    }
+
+    public void connect() throws IOException, IllegalArgumentException {
+        if (udpChoice) {
+            datagramSocket = new DatagramSocket();
+            datagramSocket.connect(new InetSocketAddress(getAddress(), getPort()));
+            datagramLength = 0;
+            datagramLines = 0;
+        } else if (httpChoice) {
+            postUrl = getAddress() + endpointToken;
+        } else {
+            Socket s = new Socket(getAddress(), getPort());
+            if (sslChoice) {
+                if (sslFactory == null) {
+                    throw new IllegalArgumentException("SSL Socket Factory is not initialized!");
+                }
+                SSLSocket sslSocket = (SSLSocket) sslFactory.createSocket(s, getAddress(), getPort(), true);
+                sslSocket.setTcpNoDelay(true);
+                socket = sslSocket;
+            } else {
+                socket = s;
+            }
+            stream = socket.getOutputStream();
+        }
+    }
+
+    public void write(String data) throws IOException {
+        if (udpChoice) {
+            packDatagramLine(data);
+            flushDatagram();
+        } else if (!httpChoice) {
+            // Token-based or DataHub output mode - we're using plain stream forwarding via the socket.
+            if (stream == null) {
+                throw new IOException("OutputStream is not initialized!");
+            }
+            streamFormatter.setLength(0); // Erase all previous data.
+            appendTokenLine(data);
+            writeToStream(1);
+        } else {
+            // HTTP input mode.
+            try {
+                httpTransport.post(postUrl, data);
+            } catch (HttpTransport.StatusException ex) {
+                // Delivered, but not accepted - re-sending it would not help. Reported as a gap by the worker.
+                stats.onLineRejected();
+                InternalLog.e("LogentriesAndroidLogger", "Received status code:" + ex.getStatusCode());
+                InternalLog.e("LogentriesAndroidLogger", "Error message:" + ex.getMessage());
+            }
+            ++sentLines;
+        }
+    }
+
+    /**
+     * Sends several messages at once. For Token-based and DataHub input all of them go to
+     * the socket in a single write, for UDP they are packed into as few datagrams as possible;
+     * for HTTP input each message is posted separately.
+     *
+     * @param data messages to be sent.
+     * @throws IOException
+     */
+    public void write(List<String> data) throws IOException {
+        if (udpChoice) {
+            for (String message : data) {
+                packDatagramLine(message);
+            }
+            flushDatagram();
+            return;
+        }
+
+        if (httpChoice || data.size() == 1) {
+            for (String message : data) {
+                write(message);
+            }
+            return;
+        }
+
+        if (stream == null) {
+            throw new IOException("OutputStream is not initialized!");
+        }
+        streamFormatter.setLength(0); // Erase all previous data.
+        for (String message : data) {
+            appendTokenLine(message);
+        }
+        writeToStream(data.size());
+    }
+
+    private void writeToStream(int lines) throws IOException {
+        byte[] bytes = streamFormatter.toString().getBytes(UTF8);
+        stream.write(bytes);
+        stream.flush();
+        stats.onLinesSent(lines, bytes.length);
+        sentLines += lines;
+    }
+
+    /**
+     * Sends pre-encoded UTF-8 lines without decoding them. Each line is prefixed with the token and
+     * the given metadata; empty lines are skipped. For HTTP input the lines are decoded and
+     * posted one by one.
+     *
+     * @param linePrefix UTF-8 encoded metadata put in front of every line.
+     * @param utf8Lines  '\n'-separated UTF-8 lines, from the buffer's position to its limit.
+     * @throws IOException
+     */
+    public void writeUtf8Lines(byte[] linePrefix, ByteBuffer utf8Lines) throws IOException {
+        byte[] data;
+        int offset;
+        int limit;
+        if (utf8Lines.hasArray()) {
+            data = utf8Lines.array();
+            offset = utf8Lines.arrayOffset() + utf8Lines.position();
+        } else {
+            // Direct buffer - copy it out once.
+            data = new byte[utf8Lines.remaining()];
+            utf8Lines.duplicate().get(data);
+            offset = 0;
+        }
+        limit = offset + utf8Lines.remaining();
+
+        if (!udpChoice && !httpChoice) {
+            if (stream == null) {
+                throw new IOException("OutputStream is not initialized!");
+            }
+            wireBuffer.reset();
+        }
+
+        int lines = 0;
+        while (offset < limit) {
+            int end = offset;
+            while (end < limit && data[end] != '\n') {
+                ++end;
+            }
+            int lineEnd = end;
+            if (lineEnd > offset && data[lineEnd - 1] == '\r') {
+                --lineEnd;
+            }
+
+            if (lineEnd > offset) {
+                if (udpChoice) {
+                    packDatagramLine(linePrefix, data, offset, lineEnd - offset);
+                } else if (httpChoice) {
+                    write(new String(linePrefix, UTF8) + new String(data, offset, lineEnd - offset, UTF8));
+                } else {
+                    wireBuffer.write(tokenPrefix, 0, tokenPrefix.length);
+                    wireBuffer.write(linePrefix, 0, linePrefix.length);
+                    wireBuffer.write(data, offset, lineEnd - offset);
+                    wireBuffer.write('\n');
+                    ++lines;
+                }
+            }
+            offset = end + 1;
+        }
+
+        if (udpChoice) {
+            flushDatagram();
+        } else if (!httpChoice && lines > 0) {
+            wireBuffer.writeTo(stream);
+            stream.flush();
+            stats.onLinesSent(lines, wireBuffer.size());
+            sentLines += lines;
+        }
+    }
+
+    private void packDatagramLine(String data) throws IOException {
+        byte[] line = data.getBytes(UTF8);
+        int lineLength = line.length;
+        while (lineLength > 0 && (line[lineLength - 1] == '\n' || line[lineLength - 1] == '\r')) {
+            --lineLength;
+        }
+        packDatagramLine(EMPTY_PREFIX, line, 0, lineLength);
+    }
+
+    /**
+     * Appends the token-prefixed line to the current datagram, sending the datagram first if the
+     * line does not fit into it. A line larger than a datagram is split on UTF-8 character
+     * boundaries into several datagrams, each starting with the token.
+     */
+    private void packDatagramLine(byte[] linePrefix, byte[] line, int offset, int length) throws IOException {
+        if (datagramSocket == null) {
+            throw new IOException("DatagramSocket is not initialized!");
+        }
+
+        int frameSize = tokenPrefix.length + linePrefix.length + length + 1;
+        if (frameSize > datagramBuffer.length - datagramLength) {
+            flushDatagram();
+        }
+
+        if (frameSize <= datagramBuffer.length) {
+            appendDatagramFrame(linePrefix, 0, linePrefix.length, line, offset, length);
+            ++datagramLines;
+        } else {
+            stats.onOversizeLine();
+            byte[] whole = new byte[linePrefix.length + length];
+            System.arraycopy(linePrefix, 0, whole, 0, linePrefix.length);
+            System.arraycopy(line, offset, whole, linePrefix.length, length);
+
+            int maxChunk = datagramBuffer.length - tokenPrefix.length - 1;
+            int start = 0;
+            while (start < whole.length) {
+                int end = Math.min(whole.length, start + maxChunk);
+                // Don't cut a multi-byte character in half.
+                while (end < whole.length && end > start && (whole[end] & 0xC0) == 0x80) {
+                    --end;
+                }
+                appendDatagramFrame(EMPTY_PREFIX, 0, 0, whole, start, end - start);
+                if (end == whole.length) {
+                    ++datagramLines;
+                }
+                flushDatagram();
+                start = end;
+            }
+        }
+    }
+
+    private void appendDatagramFrame(byte[] head, int headOffset, int headLength,
+                                     byte[] line, int offset, int length) {
+        System.arraycopy(tokenPrefix, 0, datagramBuffer, datagramLength, tokenPrefix.length);
+        datagramLength += tokenPrefix.length;
+        System.arraycopy(head, headOffset, datagramBuffer, datagramLength, headLength);
+        datagramLength += headLength;
+        System.arraycopy(line, offset, datagramBuffer, datagramLength, length);
+        datagramLength += length;
+        datagramBuffer[datagramLength++] = '\n';
+    }
+
+    private void flushDatagram() throws IOException {
+        if (datagramLength == 0) {
+            return;
+        }
+        int length = datagramLength;
+        int lines = datagramLines;
+        // Drop the datagram even if sending fails - its lines are not counted as sent, so they are retried.
+        datagramLength = 0;
+        datagramLines = 0;
+        datagramSocket.send(new DatagramPacket(datagramBuffer, length));
+        stats.onDatagramSent();
+        stats.onLinesSent(lines, length);
+        sentLines += lines;
+    }
+
+    private void appendTokenLine(String data) {
+        streamFormatter.append(endpointToken).append(" ");
+        streamFormatter.append(data);
+        // For Token-based input it is mandatory for the message to has '\n' at the end to be
+        // ingested by the endpoint correctly.
+        if (!data.endsWith("\n")) {
+            streamFormatter.append("\n");
+        }
+    }
+
+    /**
+     * Releases the memory held by the buffers which are kept for reuse between writes.
+     */
+    public void releaseBuffers() {
+        streamFormatter = new StringBuilder();
+        wireBuffer = new ByteArrayOutputStream();
+    }
+
+    public void close() {
+        if (httpTransport != null) {
+            httpTransport.close();
+        }
+        if (datagramSocket != null) {
+            datagramSocket.close();
+            datagramSocket = null;
+        }
+        try {
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+        } catch (Exception e) {
+            // Just hide the exception - we cannot throw here.
+        }
+    }
+}
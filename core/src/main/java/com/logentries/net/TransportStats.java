@@ -0,0 +1,98 @@
+package com.logentries.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send counters of a {@link LogentriesClient}. Datagram counters are used by the UDP transport only.
+ */
+public class TransportStats {
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLong linesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong oversizeLines = new AtomicLong();
+    private final AtomicLong rejectedLines = new AtomicLong();
+
+    /**
+     * Number of log lines handed over to the network.
+     */
+    public long getLinesSent() {
+        return linesSent.get();
+    }
+
+    /**
+     * Number of bytes handed over to the network, including the token prefixes.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Number of UDP datagrams sent.
+     */
+    public long getDatagramsSent() {
+        return datagramsSent.get();
+    }
+
+    /**
+     * Number of lines which did not fit into a single UDP datagram and have been split.
+     */
+    public long getOversizeLines() {
+        return oversizeLines.get();
+    }
+
+    /**
+     * Number of lines the server has responded to with an error status (HTTP input only) - they
+     * are not re-sent.
+     */
+    public long getRejectedLines() {
+        return rejectedLines.get();
+    }
+
+    /**
+     * Average number of lines sent per second since the stats have been created.
+     */
+    public double getLinesPerSecond() {
+        return perSecond(linesSent.get());
+    }
+
+    /**
+     * Average number of UDP datagrams sent per second since the stats have been created.
+     */
+    public double getDatagramsPerSecond() {
+        return perSecond(datagramsSent.get());
+    }
+
+    void onLinesSent(int lines, int bytes) {
+        linesSent.addAndGet(lines);
+        bytesSent.addAndGet(bytes);
+    }
+
+    void onDatagramSent() {
+        datagramsSent.incrementAndGet();
+    }
+
+    void onOversizeLine() {
+        oversizeLines.incrementAndGet();
+    }
+
+    void onLineRejected() {
+        rejectedLines.incrementAndGet();
+    }
+
+    private double perSecond(long count) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return count * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportStats{linesSent=" + getLinesSent() +
+                ", bytesSent=" + getBytesSent() +
+                ", datagramsSent=" + getDatagramsSent() +
+                ", oversizeLines=" + getOversizeLines() +
+                ", rejectedLines=" + getRejectedLines() + "}";
+    }
+}
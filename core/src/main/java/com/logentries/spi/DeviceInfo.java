@@ -0,0 +1,19 @@
+package com.logentries.spi;
+
+/**
+ * Metadata of the device (or host) added to every event: Host, TraceID and DeviceId.
+ */
+public interface DeviceInfo {
+
+    /**
+     * Loads or computes the metadata. May block (disk access, host name resolution), so it is
+     * called on the logger's own thread before anything is sent.
+     */
+    void load();
+
+    String getTraceId();
+
+    String getHostName();
+
+    String getDeviceId();
+}
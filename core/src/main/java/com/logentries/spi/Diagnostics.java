@@ -0,0 +1,13 @@
+package com.logentries.spi;
+
+/**
+ * Output for the logger's own diagnostic messages (failed connections, full storage, etc.) -
+ * never sent to Logentries.
+ */
+public interface Diagnostics {
+
+    /**
+     * @param priority one of the {@link com.logentries.logger.Priority} values.
+     */
+    void println(int priority, String tag, String message);
+}
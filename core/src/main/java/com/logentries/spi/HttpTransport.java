@@ -0,0 +1,44 @@
+package com.logentries.spi;
+
+import java.io.IOException;
+
+/**
+ * Posts the events to the HTTP input. One instance is used by a single thread at a time.
+ */
+public interface HttpTransport {
+
+    /**
+     * Thrown when the server has responded with an error status - the request has been delivered,
+     * so it is not retried.
+     */
+    class StatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public StatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Posts the UTF-8 encoded body to the url.
+     *
+     * @throws StatusException if the server responded with an error status.
+     * @throws IOException     if the request could not be delivered.
+     */
+    void post(String url, String body) throws IOException;
+
+    /**
+     * Releases the connections held by the transport. Called whenever the client is closed
+     * (idle timeout, reconnect) - the transport must stay usable, the next post just opens
+     * a new connection.
+     */
+    void close();
+}
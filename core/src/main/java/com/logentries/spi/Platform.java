@@ -0,0 +1,33 @@
+package com.logentries.spi;
+
+import java.io.File;
+
+/**
+ * Everything the logging engine needs from the environment it runs in. The engine itself is plain
+ * Java; the Android library provides an implementation backed by the application context, and
+ * {@link com.logentries.jvm.JvmPlatform} is one for the plain JVM (backend services, unit tests,
+ * benchmarks).
+ */
+public interface Platform {
+
+    /**
+     * Returns the private directory for the local storage, the journal and the crash file.
+     * Called on the logger's own thread, as it may touch the disk.
+     */
+    File getStorageDir();
+
+    /**
+     * Returns where the logger reports its own problems.
+     */
+    Diagnostics getDiagnostics();
+
+    /**
+     * Returns the metadata of the device or host the events are sent from.
+     */
+    DeviceInfo getDeviceInfo();
+
+    /**
+     * Creates the HTTP transport used with HTTP POST input.
+     */
+    HttpTransport newHttpTransport();
+}
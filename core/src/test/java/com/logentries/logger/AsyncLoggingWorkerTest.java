@@ -0,0 +1,411 @@
+package com.logentries.logger;
+
+import com.logentries.jvm.JvmDeviceInfo;
+import com.logentries.jvm.JvmPlatform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLoggingWorkerTest {
+
+    private static final String TOKEN = "159a0ea4-0000-4000-8000-000000000000";
+    private static final String PREVIOUS_SESSION = "6f1c3a52-0d4e-4b8a-9c27-3e5f1a2b4c6d";
+
+    private File storageDir;
+    private AsyncLoggingWorker worker;
+    private LineServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDir = File.createTempFile("worker", "");
+        assertTrue(storageDir.delete());
+        assertTrue(storageDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        if (worker != null) {
+            worker.close(1000);
+        }
+        if (server != null) {
+            server.close();
+        }
+        deleteDir(storageDir);
+    }
+
+    @Test
+    public void metadataIsLoadedOnTheAppenderThread() throws Exception {
+        RecordingDeviceInfo deviceInfo = new RecordingDeviceInfo();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir, deviceInfo), new LoggerConfig.Builder(TOKEN).build());
+
+        assertTrue(deviceInfo.loaded.await(2, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), deviceInfo.loadingThread);
+        assertEquals("Logentries Socket appender", deviceInfo.loadingThread.getName());
+    }
+
+    @Test
+    public void closeSendsTheBatchBeingCollected() throws Exception {
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig()
+                .lingerMs(60000)
+                .maxBatchEvents(100)
+                .build());
+        for (int i = 0; i < 3; ++i) {
+            worker.addLineToQueue("message " + i);
+        }
+
+        long start = System.currentTimeMillis();
+        worker.close(10000);
+
+        // The batch is sent right away rather than after the linger time, or being dropped.
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        for (int i = 0; i < 3; ++i) {
+            assertReceived("message " + i, server.takeLine());
+        }
+    }
+
+    @Test
+    public void closeSendsTheBatchesBeingEncoded() throws Exception {
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig()
+                .maxBatchEvents(10)
+                .encoderThreads(2)
+                .build());
+        int count = 2000;
+        for (int i = 0; i < count; ++i) {
+            worker.addLineToQueue("message " + i);
+        }
+
+        worker.close(10000);
+
+        for (int i = 0; i < count; ++i) {
+            assertReceived("message " + i, server.takeLine());
+        }
+    }
+
+    @Test
+    public void idleAppenderDoesNotWakeUpPeriodically() throws Exception {
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), new LoggerConfig.Builder(TOKEN)
+                .metricsFlushIntervalMs(100)
+                .build());
+        // Registered, but not updated - there is nothing to flush.
+        worker.getMetricRegistry().counter("unused");
+
+        assertTrue(waitForState(worker.getAppenderThread(), Thread.State.WAITING));
+        Thread.sleep(300);
+        assertEquals(Thread.State.WAITING, worker.getAppenderThread().getState());
+    }
+
+    @Test
+    public void idleConnectionIsClosedAndReopenedOnTheNextWrite() throws Exception {
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig().idleTimeoutMs(200).build());
+
+        worker.addLineToQueue("first");
+        assertReceived("first", server.takeLine());
+        assertTrue(server.awaitDisconnects(1));
+
+        worker.addLineToQueue("second");
+        assertReceived("second", server.takeLine());
+        assertEquals(2, server.getConnections());
+    }
+
+    @Test
+    public void linesAreQueuedAndSentAsOneUnit() throws Exception {
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig().build());
+        char[] longLine = new char[AsyncLoggingWorker.LOG_LENGTH_LIMIT + 10];
+        Arrays.fill(longLine, 'x');
+
+        worker.addLinesToQueue(Arrays.asList("first", new StringBuilder("second\nline"), new String(longLine)));
+
+        String first = server.takeLine();
+        assertReceived("first", first);
+        assertReceived("second\u2028line", server.takeLine());
+        // Split into LOG_LENGTH_LIMIT chunks.
+        assertReceived(new String(longLine, 0, AsyncLoggingWorker.LOG_LENGTH_LIMIT), server.takeLine());
+        String last = server.takeLine();
+        assertReceived("xxxxxxxxxx", last);
+        // All lines belong to the same event.
+        assertEquals(sequenceOf(first), sequenceOf(last));
+    }
+
+    @Test
+    public void utf8LinesAreSentAsTheyAre() throws Exception {
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig().build());
+        ByteBuffer utf8Lines = ByteBuffer.wrap("first\n\nsecond\r\n\u20ac uro".getBytes("UTF-8"));
+
+        worker.addUtf8LinesToQueue(utf8Lines);
+        assertEquals(0, utf8Lines.position());
+
+        // The empty line is skipped.
+        String first = server.takeLine();
+        assertReceived("first", first);
+        assertReceived("second", server.takeLine());
+        String last = server.takeLine();
+        assertReceived("\u20ac uro", last);
+        assertEquals(sequenceOf(first), sequenceOf(last));
+    }
+
+    @Test
+    public void crashLogsAreNotReplayedFromTheJournalAgain() throws Exception {
+        // The previous session journaled two events and saved the first one to the crash file.
+        LogJournal previous = LogJournal.createSegment(storageDir, PREVIOUS_SESSION, 1000, 100);
+        LogEvent crashed = new LogEvent("saved on crash");
+        crashed.stamp(PREVIOUS_SESSION, 0);
+        previous.append(crashed);
+        LogEvent other = new LogEvent("journaled only");
+        other.stamp(PREVIOUS_SESSION, 1);
+        previous.append(other);
+        previous.close();
+
+        FileChannel crashFile = new LogStorage(storageDir).openCrashFile();
+        try {
+            crashFile.write(ByteBuffer.wrap((LogStorage.toStoredLine(crashed, "saved on crash") + "\n").getBytes("UTF-8")));
+        } finally {
+            crashFile.close();
+        }
+
+        server = new LineServer();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), dataHubConfig().useJournal(true).build());
+
+        assertReceived("saved on crash", server.takeLine());
+        assertReceived("journaled only", server.takeLine());
+    }
+
+    @Test
+    public void eventsAreSpilledOnMemoryPressureAndLoadedBackAfterIt() throws Exception {
+        server = new LineServer();
+        BlockingDeviceInfo deviceInfo = new BlockingDeviceInfo();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir, deviceInfo), dataHubConfig().build());
+        worker.memoryBudgetRestoreDelay = 500;
+
+        // The appender is held up, so the messages pile up in the queue.
+        int count = 3000;
+        for (int i = 0; i < count; ++i) {
+            worker.addLineToQueue("message " + i);
+        }
+        worker.onMemoryPressure(AsyncLoggingWorker.MEMORY_PRESSURE_CRITICAL);
+        deviceInfo.release.countDown();
+
+        Set<String> received = new HashSet<String>();
+        for (int i = 0; i < count; ++i) {
+            String line = server.takeLine();
+            assertTrue(line != null);
+            received.add(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(count, received.size());
+
+        LoggerMetrics metrics = worker.getMetrics();
+        assertEquals(1, metrics.getSpills());
+        assertTrue(String.valueOf(metrics.getSpilledEvents()), metrics.getSpilledEvents() > count - 2048 - 2);
+    }
+
+    @Test
+    public void pendingEventsAreStoredWhenTheAppenderIsInterrupted() throws Exception {
+        // Nothing listens on the port - the appender keeps reconnecting.
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        int port = closed.getLocalPort();
+        closed.close();
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir), new LoggerConfig.Builder(TOKEN)
+                .useDataHub(InetAddress.getLoopbackAddress().getHostAddress(), port)
+                .build());
+        for (int i = 0; i < 5; ++i) {
+            worker.addLineToQueue("message " + i);
+        }
+
+        worker.close(100);
+        worker.getAppenderThread().join(5000);
+        worker = null;
+
+        List<String> stored = new ArrayList<String>();
+        for (String line : new LogStorage(storageDir).getAllLogsFromStorage(false)) {
+            stored.add(LogStorage.toEvent(line).getMessage());
+        }
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(stored.toString(), stored.contains("message " + i));
+        }
+    }
+
+        private LoggerConfig.Builder dataHubConfig() {
+        return new LoggerConfig.Builder(TOKEN)
+                .useDataHub(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort())
+                .logHostName(false);
+    }
+
+    private static String sequenceOf(String line) {
+        int start = line.indexOf(" Seq=");
+        return line.substring(start, line.indexOf(' ', start + 1));
+    }
+
+    private static boolean waitForState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != state) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static void assertReceived(String message, String line) {
+        assertTrue(String.valueOf(line), line != null && line.startsWith(TOKEN + " ") && line.endsWith(" " + message));
+    }
+
+    /**
+     * Local stand-in for the DataHub, collecting the lines it receives.
+     */
+    static class LineServer {
+
+        private final ServerSocket serverSocket;
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+        private final Semaphore disconnects = new Semaphore(0);
+
+        LineServer() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            read(serverSocket.accept());
+                        }
+                    } catch (IOException ex) {
+                        // Closed.
+                    }
+                }
+            }, "LineServer acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * Returns the next line received, or null if none arrives within 5 seconds.
+         */
+        String takeLine() throws InterruptedException {
+            return lines.poll(5, TimeUnit.SECONDS);
+        }
+
+        synchronized int getConnections() {
+            return sockets.size();
+        }
+
+        /**
+         * Waits up to 5 seconds for the given number of connections to be closed by the client.
+         */
+        boolean awaitDisconnects(int count) throws InterruptedException {
+            return disconnects.tryAcquire(count, 5, TimeUnit.SECONDS);
+        }
+
+        synchronized void close() {
+            try {
+                serverSocket.close();
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            } catch (IOException ex) {
+                // Ignore.
+            }
+        }
+
+        private synchronized void read(final Socket socket) {
+            sockets.add(socket);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                        for (String line = input.readLine(); line != null; line = input.readLine()) {
+                            lines.add(line);
+                        }
+                        disconnects.release();
+                    } catch (IOException ex) {
+                        // Closed.
+                    }
+                }
+            }, "LineServer reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Device info recording the thread it has been loaded on.
+     */
+    static class RecordingDeviceInfo extends JvmDeviceInfo {
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        volatile Thread loadingThread;
+
+        @Override
+        public void load() {
+            loadingThread = Thread.currentThread();
+            super.load();
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Device info holding up the appender thread until it is released.
+     */
+    static class BlockingDeviceInfo extends JvmDeviceInfo {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void load() {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            super.load();
+        }
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,79 @@
+package com.logentries.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchEncoderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BatchEncoder encoder;
+
+    @Before
+    public void setUp() {
+        LoggerMetrics metrics = new LoggerMetrics(100);
+        encoder = new BatchEncoder(4, false, false, metrics, new GapTracker(metrics));
+    }
+
+    @After
+    public void tearDown() {
+        encoder.shutdown();
+    }
+
+    @Test
+    public void batchesComeBackInSubmissionOrder() throws InterruptedException {
+        for (int batch = 0; batch < 20; ++batch) {
+            List<LogEvent> events = new ArrayList<LogEvent>();
+            // Batches of very different sizes, so they finish out of order.
+            int count = batch % 2 == 0 ? 500 : 1;
+            for (int i = 0; i < count; ++i) {
+                events.add(new LogEvent("batch " + batch + " event " + i));
+            }
+            encoder.submit(events);
+        }
+
+        for (int batch = 0; batch < 20; ++batch) {
+            BatchEncoder.EncodedBatch encoded = encoder.take();
+            String[] lines = decode(encoded.getData()).split("\n");
+            assertEquals(encoded.getEvents().size(), lines.length);
+            for (int i = 0; i < lines.length; ++i) {
+                assertTrue(lines[i], lines[i].endsWith("batch " + batch + " event " + i));
+            }
+        }
+        assertNull(encoder.take());
+    }
+
+    @Test
+    public void utf8LinesKeepTheirBytesAndOrder() throws InterruptedException {
+        ByteBuffer utf8Lines = ByteBuffer.wrap("first \u00e9\n\nsecond \u20ac\r\nthird".getBytes(UTF8));
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        events.add(new LogEvent("before"));
+        events.add(LogEvent.ofUtf8Lines(utf8Lines));
+        events.add(new LogEvent("after"));
+        encoder.submit(events);
+
+        String[] lines = decode(encoder.take().getData()).split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].endsWith("before"));
+        assertTrue(lines[1].endsWith("first \u00e9"));
+        assertTrue(lines[2].endsWith("second \u20ac\r"));
+        assertTrue(lines[3].endsWith("third"));
+        assertTrue(lines[4].endsWith("after"));
+    }
+
+    private static String decode(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
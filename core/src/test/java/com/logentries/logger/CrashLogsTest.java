@@ -0,0 +1,144 @@
+package com.logentries.logger;
+
+import com.logentries.jvm.JvmPlatform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CrashLogsTest {
+
+    private static final String TOKEN = "159a0ea4-0000-4000-8000-000000000000";
+
+    private File workerDir;
+    private File storageDir;
+    private AsyncLoggingWorker worker;
+    private Thread.UncaughtExceptionHandler defaultHandler;
+    private final List<Throwable> passedOn = new ArrayList<Throwable>();
+
+    @Before
+    public void setUp() throws IOException {
+        workerDir = createTempDir("worker");
+        storageDir = createTempDir("storage");
+        worker = new AsyncLoggingWorker(new JvmPlatform(workerDir), new LoggerConfig.Builder(TOKEN).build());
+
+        defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                passedOn.add(e);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        worker.close();
+        deleteDir(workerDir);
+        deleteDir(storageDir);
+    }
+
+    @Test
+    public void storedLinesKeepTheirStamps() {
+        LogEvent event = new LogEvent("message");
+        event.stamp("session", 42);
+
+        LogEvent restored = LogStorage.toEvent(LogStorage.toStoredLine(event, "message"));
+        assertEquals("message", restored.getMessage());
+        assertEquals("session", restored.getSessionId());
+        assertEquals(42, restored.getSequence());
+
+        LogEvent unstamped = LogStorage.toEvent(LogStorage.toStoredLine(new LogEvent("plain"), "plain"));
+        assertEquals("plain", unstamped.getMessage());
+        assertFalse(unstamped.isStamped());
+    }
+
+    @Test
+    public void crashIsSavedAndReplayedUntilDelivered() throws IOException {
+        LogStorage storage = new LogStorage(storageDir);
+        FileChannel crashFile = storage.openCrashFile();
+        CrashHandler handler = new CrashHandler(worker, 1000);
+        handler.prepare(crashFile);
+
+        RuntimeException crash = new RuntimeException("boom");
+        handler.uncaughtException(Thread.currentThread(), crash);
+        handler.uninstall();
+
+        // The exception goes on to the previous handler.
+        assertEquals(1, passedOn.size());
+        assertSame(crash, passedOn.get(0));
+
+        Queue<String> logs = new LogStorage(storageDir).takeCrashLogs();
+        assertEquals(1, logs.size());
+        LogEvent event = LogStorage.toEvent(logs.peek());
+        assertEquals(worker.getSessionId(), event.getSessionId());
+        assertTrue(event.getMessage(), event.getMessage().contains(CrashHandler.CRASH_TAG));
+        assertTrue(event.getMessage(), event.getMessage().contains("boom"));
+
+        // Not delivered yet - replayed by the next session as well.
+        LogStorage nextSession = new LogStorage(storageDir);
+        assertEquals(new ArrayList<String>(logs), new ArrayList<String>(nextSession.takeCrashLogs()));
+
+        nextSession.removeCrashLogs();
+        assertTrue(new LogStorage(storageDir).takeCrashLogs().isEmpty());
+    }
+
+    @Test
+    public void newCrashIsAddedToAnUnfinishedReplay() throws IOException {
+        LogStorage storage = new LogStorage(storageDir);
+        writeCrashLine(storage, "first crash");
+        assertEquals(1, storage.takeCrashLogs().size());
+
+        // The session crashes again before the first crash has been delivered.
+        writeCrashLine(storage, "second crash");
+
+        Queue<String> logs = new LogStorage(storageDir).takeCrashLogs();
+        assertEquals(2, logs.size());
+        assertEquals("first crash", logs.poll());
+        assertEquals("second crash", logs.poll());
+    }
+
+    private static void writeCrashLine(LogStorage storage, String line) throws IOException {
+        FileChannel crashFile = storage.openCrashFile();
+        try {
+            crashFile.write(ByteBuffer.wrap((line + "\n").getBytes("UTF-8")));
+        } finally {
+            crashFile.close();
+        }
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDir(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
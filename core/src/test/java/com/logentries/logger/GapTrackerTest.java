@@ -0,0 +1,78 @@
+package com.logentries.logger;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GapTrackerTest {
+
+    private static final String SESSION_ID = "6f1c3a52-0d4e-4b8a-9c27-3e5f1a2b4c6d";
+
+    @Test
+    public void consecutiveSequenceNumbersMakeRanges() {
+        LoggerMetrics metrics = new LoggerMetrics(100);
+        GapTracker gaps = new GapTracker(metrics);
+        for (long sequence : new long[]{3, 4, 5, 9, 11, 12}) {
+            gaps.onLost(GapTracker.QUEUE_OVERFLOW, stamped(sequence));
+        }
+
+        List<StructuredMessage> records = gaps.takeRecords();
+        assertEquals(1, records.size());
+        String record = records.get(0).render();
+        assertTrue(record, record.contains("\"Reason\": \"queue overflow\""));
+        assertTrue(record, record.contains("\"Lost\": \"6\""));
+        assertTrue(record, record.contains("\"Session\": \"" + SESSION_ID + "\""));
+        assertTrue(record, record.contains("\"Seq\": \"3-5,9,11-12\""));
+        assertEquals(6, metrics.getLostEvents());
+    }
+
+    @Test
+    public void linesOfTheSameEventAreCountedOnce() {
+        LoggerMetrics metrics = new LoggerMetrics(100);
+        GapTracker gaps = new GapTracker(metrics);
+        LogEvent event = stamped(7);
+        gaps.onLost(GapTracker.STORAGE_WRITE_FAILED, event);
+        gaps.onLost(GapTracker.STORAGE_WRITE_FAILED, event);
+
+        String record = gaps.takeRecords().get(0).render();
+        assertTrue(record, record.contains("\"Lost\": \"1\""));
+        assertEquals(1, metrics.getLostEvents());
+    }
+
+    @Test
+    public void recordsAreKeptPerReasonAndTakenOnce() {
+        GapTracker gaps = new GapTracker(new LoggerMetrics(100));
+        gaps.onLost(GapTracker.QUEUE_OVERFLOW, stamped(1));
+        gaps.onLost(GapTracker.STORAGE_FULL, 10);
+
+        List<StructuredMessage> records = gaps.takeRecords();
+        assertEquals(2, records.size());
+        String storageFull = records.get(1).render();
+        assertTrue(storageFull, storageFull.contains("\"Lost\": \"10\""));
+        assertTrue(storageFull, storageFull.contains("\"Unlisted\": \"10\""));
+
+        assertTrue(gaps.isEmpty());
+        assertTrue(gaps.takeRecords().isEmpty());
+    }
+
+    @Test
+    public void rangesOverTheLimitAreOnlyCounted() {
+        GapTracker gaps = new GapTracker(new LoggerMetrics(100));
+        for (int i = 0; i < 40; ++i) {
+            gaps.onLost(GapTracker.QUEUE_OVERFLOW, stamped(i * 2));
+        }
+
+        String record = gaps.takeRecords().get(0).render();
+        assertTrue(record, record.contains("\"Lost\": \"40\""));
+        assertTrue(record, record.contains("\"Unlisted\": \"8\""));
+    }
+
+    private static LogEvent stamped(long sequence) {
+        LogEvent event = new LogEvent("message " + sequence);
+        event.stamp(SESSION_ID, sequence);
+        return event;
+    }
+}
@@ -0,0 +1,20 @@
+package com.logentries.logger;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogEventTest {
+
+    @Test
+    public void sizeIsInUtf8Bytes() throws Exception {
+        String text = "ascii \u00e9 \u20ac \ud83d\ude00";
+
+        assertEquals(text.getBytes("UTF-8").length, new LogEvent(text).getSize());
+        assertEquals(2 * (text.getBytes("UTF-8").length + 1), LogEvent.ofLines(Arrays.asList(text, text)).getSize());
+        assertEquals(text.getBytes("UTF-8").length, LogEvent.ofUtf8Lines(ByteBuffer.wrap(text.getBytes("UTF-8"))).getSize());
+    }
+}
@@ -0,0 +1,199 @@
+package com.logentries.logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogJournalTest {
+
+    private static final String JOURNAL_DIR_NAME = "LogentriesJournal";
+    private static final String SESSION_ID = "6f1c3a52-0d4e-4b8a-9c27-3e5f1a2b4c6d";
+
+    private File filesDir;
+
+    @Before
+    public void setUp() throws IOException {
+        filesDir = File.createTempFile("journal", "");
+        assertTrue(filesDir.delete());
+        assertTrue(filesDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File journalDir = new File(filesDir, JOURNAL_DIR_NAME);
+        File[] files = journalDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        journalDir.delete();
+        filesDir.delete();
+    }
+
+    @Test
+    public void recoversUnacknowledgedEventsWithTheirSequenceNumbers() throws IOException {
+        LogJournal journal = LogJournal.createSegment(filesDir, SESSION_ID, 1000, 100);
+        List<LogEvent> events = appendEvents(journal, 5);
+        events.get(0).acknowledge();
+        events.get(1).acknowledge();
+        journal.close();
+
+        List<LogJournal> previous = LogJournal.openPreviousSegments(filesDir, null);
+        assertEquals(1, previous.size());
+        List<LogEvent> recovered = previous.get(0).recover();
+
+        assertEquals(3, recovered.size());
+        for (int i = 0; i < recovered.size(); ++i) {
+            LogEvent event = recovered.get(i);
+            assertEquals("message " + (i + 2), event.getMessage());
+            assertEquals(SESSION_ID, event.getSessionId());
+            assertEquals(i + 2, event.getSequence());
+            assertTrue(event.isJournaled());
+        }
+        previous.get(0).close();
+    }
+
+    @Test
+    public void outOfOrderAcknowledgementsDontCommitUnacknowledgedRecords() throws IOException {
+        LogJournal journal = LogJournal.createSegment(filesDir, SESSION_ID, 1000, 100);
+        List<LogEvent> events = appendEvents(journal, 4);
+
+        // An urgent event overtakes the older ones.
+        events.get(2).acknowledge();
+        assertFalse(journal.isFullyAcknowledged());
+        events.get(0).acknowledge();
+        journal.close();
+
+        LogJournal previous = LogJournal.openPreviousSegments(filesDir, null).get(0);
+        List<LogEvent> recovered = previous.recover();
+
+        // Everything after the oldest unacknowledged record is re-sent - at least once.
+        assertEquals(3, recovered.size());
+        assertEquals("message 1", recovered.get(0).getMessage());
+        assertEquals("message 2", recovered.get(1).getMessage());
+        assertEquals("message 3", recovered.get(2).getMessage());
+
+        recovered.get(2).acknowledge();
+        recovered.get(1).acknowledge();
+        assertFalse(previous.isFullyAcknowledged());
+        recovered.get(0).acknowledge();
+        assertTrue(previous.isFullyAcknowledged());
+
+        // A fully acknowledged segment of a previous session is deleted on close.
+        previous.close();
+        assertTrue(LogJournal.openPreviousSegments(filesDir, null).isEmpty());
+    }
+
+    @Test
+    public void discardsTornRecordAtTheEnd() throws IOException {
+        LogJournal journal = LogJournal.createSegment(filesDir, SESSION_ID, 1000, 100);
+        appendEvents(journal, 2);
+        journal.close();
+
+        File segment = new File(filesDir, JOURNAL_DIR_NAME).listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // Record header of a 100 bytes long message, followed by a few bytes of it.
+            file.seek(file.length());
+            file.writeInt(100);
+            file.writeByte(0);
+            file.write(new byte[]{'t', 'o', 'r', 'n'});
+        } finally {
+            file.close();
+        }
+
+        LogJournal previous = LogJournal.openPreviousSegments(filesDir, null).get(0);
+        List<LogEvent> recovered = previous.recover();
+        assertEquals(2, recovered.size());
+        assertEquals("message 1", recovered.get(1).getMessage());
+        previous.close();
+    }
+
+    @Test
+    public void segmentsInUseAreNotRecovered() throws IOException {
+        LogJournal live = LogJournal.createSegment(filesDir, SESSION_ID, 1000, 100);
+        appendEvents(live, 1);
+        live.sync();
+
+        // E.g. a re-created logger while the old one is still closing.
+        assertTrue(LogJournal.openPreviousSegments(filesDir, null).isEmpty());
+
+        live.close();
+        List<LogJournal> previous = LogJournal.openPreviousSegments(filesDir, null);
+        assertEquals(1, previous.size());
+
+        // Nor are the segments being recovered by another worker.
+        assertTrue(LogJournal.openPreviousSegments(filesDir, null).isEmpty());
+        previous.get(0).close();
+    }
+
+    @Test
+    public void syncWritesTheBufferedRecords() throws IOException {
+        LogJournal journal = LogJournal.createSegment(filesDir, SESSION_ID, 1000, 100);
+        appendEvents(journal, 3);
+        journal.sync();
+        appendEvents(journal, 2);
+        journal.sync();
+
+        File segment = new File(filesDir, JOURNAL_DIR_NAME).listFiles()[0];
+        assertTrue(segment.length() > 8);
+        journal.close();
+
+        LogJournal previous = LogJournal.openPreviousSegments(filesDir, null).get(0);
+        assertEquals(5, previous.recover().size());
+        previous.close();
+    }
+
+    @Test
+    public void fullBuffersAreWrittenBySyncNotByTheAppends() throws IOException {
+        LogJournal journal = LogJournal.createSegment(filesDir, SESSION_ID, 60000, 100000);
+        File segment = new File(filesDir, JOURNAL_DIR_NAME).listFiles()[0];
+        char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < 600; ++i) {
+            journal.append(new LogEvent(i + new String(padding)));
+        }
+        // An oversized record goes after the buffered ones.
+        journal.append(LogEvent.ofUtf8Lines(ByteBuffer.wrap(new byte[300 * 1024])));
+
+        // Over two write buffers worth of records, and nothing has been written yet.
+        assertEquals(8, segment.length());
+
+        journal.syncIfDue();
+        assertTrue(segment.length() > 600 * 1000 + 300 * 1024);
+        journal.close();
+
+        LogJournal previous = LogJournal.openPreviousSegments(filesDir, null).get(0);
+        List<LogEvent> recovered = previous.recover();
+        assertEquals(601, recovered.size());
+        for (int i = 0; i < 600; ++i) {
+            assertEquals(i + new String(padding), recovered.get(i).getMessage());
+        }
+        assertEquals(300 * 1024, recovered.get(600).getUtf8Lines().remaining());
+        previous.close();
+    }
+
+    private static List<LogEvent> appendEvents(LogJournal journal, int count) throws IOException {
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        for (int i = 0; i < count; ++i) {
+            LogEvent event = new LogEvent("message " + i);
+            event.stamp(SESSION_ID, i);
+            journal.append(event);
+            events.add(event);
+        }
+        return events;
+    }
+}
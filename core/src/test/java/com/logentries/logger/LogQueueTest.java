@@ -0,0 +1,89 @@
+package com.logentries.logger;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogQueueTest {
+
+    @Test
+    public void urgentMessagesGoFirst() throws InterruptedException {
+        LogQueue queue = new LogQueue(10, 10);
+        LogEvent regular1 = new LogEvent("regular 1");
+        LogEvent regular2 = new LogEvent("regular 2");
+        LogEvent urgent = new LogEvent("urgent");
+        queue.offer(regular1, false);
+        queue.offer(regular2, false);
+        queue.offer(urgent, true);
+
+        assertEquals(3, queue.size());
+        assertSame(urgent, queue.take());
+        assertSame(regular1, queue.poll());
+        assertSame(regular2, queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void lanesHaveSeparateCapacities() {
+        LogQueue queue = new LogQueue(2, 1);
+        assertTrue(queue.offer(new LogEvent("regular 1"), false));
+        assertTrue(queue.offer(new LogEvent("regular 2"), false));
+        assertFalse(queue.offer(new LogEvent("regular 3"), false));
+
+        // A full regular lane doesn't block the urgent messages.
+        assertTrue(queue.offer(new LogEvent("urgent 1"), true));
+        assertFalse(queue.offer(new LogEvent("urgent 2"), true));
+    }
+
+    @Test
+    public void pollOldestTakesFromTheGivenLane() throws InterruptedException {
+        LogQueue queue = new LogQueue(10, 10);
+        LogEvent regular = new LogEvent("regular");
+        LogEvent urgent = new LogEvent("urgent");
+        queue.offer(regular, false);
+        queue.offer(urgent, true);
+
+        assertSame(regular, queue.pollOldest(false));
+        assertNull(queue.pollOldest(false));
+        assertSame(urgent, queue.pollUrgent());
+        assertNull(queue.pollUrgent());
+
+        // The count of the available messages follows - the consumer doesn't wake up for nothing.
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void wakeUpReleasesTheWaitingConsumer() throws InterruptedException {
+        LogQueue queue = new LogQueue(10, 10);
+        queue.wakeUp();
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void liveTrafficAndBacklogAreInterleavedFourToOne() {
+        LogQueue queue = new LogQueue(100, 10);
+        Queue<LogEvent> backlog = new ArrayDeque<LogEvent>();
+        for (int i = 0; i < 20; ++i) {
+            queue.offer(new LogEvent("live"), false);
+            backlog.add(new LogEvent("backlog"));
+        }
+
+        WeightedScheduler scheduler = new WeightedScheduler(AsyncLoggingWorker.LIVE_TRAFFIC_WEIGHT,
+                AsyncLoggingWorker.BACKLOG_WEIGHT);
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 15; ++i) {
+            LogEvent event = scheduler.nextIsLive() ? queue.poll() : backlog.poll();
+            order.append(event.getMessage().equals("live") ? 'L' : 'B');
+        }
+        assertEquals("LLLLBLLLLBLLLLB", order.toString());
+    }
+}
@@ -0,0 +1,120 @@
+package com.logentries.logger;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SourceProfilerTest {
+
+    @Test
+    public void messagesDifferingInNumbersCountAsOneSource() {
+        SourceProfiler profiler = new SourceProfiler(2, 60000);
+        LogEvent structured = LogEvent.ofStructured(new StructuredMessage(Priority.INFO, "Network", "Sent 3 bytes",
+                null, null));
+        profiler.record(new LogEvent("Took 15 ms"));
+        profiler.record(new LogEvent("Took 230 ms"));
+        profiler.record(structured);
+
+        SourceProfiler.Report report = profiler.takeReport(System.currentTimeMillis());
+        assertEquals(3, report.getTotalEvents());
+        assertEquals("Took 15 ms".length() + "Took 230 ms".length() + structured.getSize(), report.getTotalBytes());
+
+        List<SourceProfiler.Source> sources = report.getSources();
+        assertEquals(2, sources.size());
+        assertSource(sources.get(0), "Took # ms", 2, 0, 0);
+        assertEquals("Took 15 ms".length() + "Took 230 ms".length(), sources.get(0).getBytes());
+        assertSource(sources.get(1), "Network", 1, 0, 0);
+    }
+
+    @Test
+    public void newcomerInheritsTheCountOfTheEvictedSourceAsError() {
+        // One reported source - four slots.
+        SourceProfiler profiler = new SourceProfiler(1, 60000);
+        record(profiler, "heavy", 5);
+        record(profiler, "b", 1);
+        record(profiler, "c", 1);
+        record(profiler, "d", 1);
+
+        // Takes the slot of one of the sources seen once.
+        record(profiler, "newcomer", 5);
+
+        SourceProfiler.Report report = profiler.takeReport(System.currentTimeMillis());
+        assertEquals(13, report.getTotalEvents());
+        assertEquals(1, report.getSources().size());
+        assertSource(report.getSources().get(0), "newcomer", 6, 1, 0);
+    }
+
+    @Test
+    public void evictedSourceStartsOverWhenItComesBack() {
+        SourceProfiler profiler = new SourceProfiler(1, 60000);
+        record(profiler, "a", 4);
+        record(profiler, "b", 3);
+        record(profiler, "c", 2);
+        record(profiler, "d", 1);
+
+        record(profiler, "e", 1); // Evicts "d".
+        record(profiler, "d", 1); // Evicts "e", counted as 2 + 1 with an error of 2.
+        record(profiler, "d", 2);
+
+        SourceProfiler.Report report = profiler.takeReport(System.currentTimeMillis());
+        assertSource(report.getSources().get(0), "d", 5, 2, 0);
+    }
+
+    @Test
+    public void dropsAreAttributedToTheTrackedSources() {
+        SourceProfiler profiler = new SourceProfiler(2, 60000);
+        record(profiler, "chatty", 3);
+        record(profiler, "quiet", 1);
+
+        profiler.recordDrop(new LogEvent("chatty"));
+        profiler.recordDrop(new LogEvent("chatty"));
+        profiler.recordDrop(new LogEvent("untracked"));
+
+        SourceProfiler.Report report = profiler.takeReport(System.currentTimeMillis());
+        assertEquals(3, report.getDroppedEvents());
+        assertSource(report.getSources().get(0), "chatty", 3, 0, 2);
+        assertSource(report.getSources().get(1), "quiet", 1, 0, 0);
+    }
+
+    @Test
+    public void reportStartsANewInterval() {
+        SourceProfiler profiler = new SourceProfiler(2, 1000);
+        assertFalse(profiler.hasData());
+
+        profiler.record(LogEvent.ofLines(Arrays.asList("first", "second")));
+        assertTrue(profiler.hasData());
+
+        long now = System.currentTimeMillis();
+        SourceProfiler.Report report = profiler.takeReport(now);
+        assertSource(report.getSources().get(0), "<multi-line>", 1, 0, 0);
+
+        assertFalse(profiler.hasData());
+        assertEquals(now + 1000, profiler.getNextReportTime());
+        assertFalse(profiler.isReportDue(now + 999));
+        assertTrue(profiler.isReportDue(now + 1000));
+
+        report = profiler.takeReport(now + 1000);
+        assertEquals(now, report.getStartTime());
+        assertEquals(0, report.getTotalEvents());
+        assertTrue(report.getSources().isEmpty());
+    }
+
+    private static void record(SourceProfiler profiler, String message, int times) {
+        for (int i = 0; i < times; ++i) {
+            profiler.record(new LogEvent(message));
+        }
+    }
+
+    private static void assertSource(SourceProfiler.Source source, String key, long events, long maxError,
+                                     long droppedEvents) {
+        assertEquals(key, source.getKey());
+        assertEquals(events, source.getEvents());
+        assertEquals(maxError, source.getMaxError());
+        assertEquals(droppedEvents, source.getDroppedEvents());
+    }
+}
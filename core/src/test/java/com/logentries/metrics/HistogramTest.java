@@ -0,0 +1,133 @@
+package com.logentries.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesAreCountedExactly() {
+        for (int value = 0; value < 32; ++value) {
+            int index = Histogram.bucketIndex(value);
+            assertEquals(value, index);
+            assertEquals(value, Histogram.lowerBound(index));
+            assertEquals(value, Histogram.upperBound(index));
+        }
+    }
+
+    @Test
+    public void everyValueFallsWithinItsBucket() {
+        int previousIndex = -1;
+        for (long value = 0; value < (1L << 20); value += 1 + value / 64) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(index >= previousIndex);
+            assertTrue(index < Histogram.BUCKETS);
+            assertTrue(value >= Histogram.lowerBound(index));
+            assertTrue(value <= Histogram.upperBound(index));
+            previousIndex = index;
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousWithBoundedRelativeError() {
+        for (int index = 1; index < Histogram.BUCKETS; ++index) {
+            assertEquals(Histogram.upperBound(index - 1) + 1, Histogram.lowerBound(index));
+            long lower = Histogram.lowerBound(index);
+            long width = Histogram.upperBound(index) - lower + 1;
+            // Values below 32 are exact; above, a bucket spans at most 1/16 of its lower bound.
+            assertTrue(width == 1 || (double) width / lower <= 0.0625);
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        Histogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(Histogram.upperBound(Histogram.BUCKETS - 1), snapshot.getMax());
+    }
+
+    @Test
+    public void snapshotSummarizesAndResets() {
+        Histogram histogram = new Histogram("test");
+        for (int value = 1; value <= 100; ++value) {
+            histogram.record(value);
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(Histogram.upperBound(Histogram.bucketIndex(50)), snapshot.getPercentile(50));
+        assertEquals(Histogram.upperBound(Histogram.bucketIndex(100)), snapshot.getMax());
+
+        assertEquals(0, histogram.snapshotThenReset().getCount());
+    }
+
+    @Test
+    public void snapshotsMerge() {
+        Histogram first = new Histogram("first");
+        Histogram second = new Histogram("second");
+        first.record(3);
+        first.record(40);
+        second.record(3);
+        second.record(1000);
+
+        Histogram.Snapshot merged = first.snapshotThenReset().merge(second.snapshotThenReset());
+        assertEquals(4, merged.getCount());
+        assertEquals(1046, merged.getSum());
+        assertEquals("3:2,40:1," + Histogram.lowerBound(Histogram.bucketIndex(1000)) + ":1",
+                merged.getBucketCounts());
+    }
+
+    @Test
+    public void flushEmitsMergeableHistogramsAndChangedGauges() {
+        MetricRegistry registry = new MetricRegistry(60000);
+        registry.histogram("latency").record(5);
+        registry.histogram("latency").record(7);
+        registry.gauge("size").set(42);
+
+        Map<String, String> values = registry.flush(System.currentTimeMillis());
+        assertEquals("2", values.get("latency.count"));
+        assertEquals("12", values.get("latency.sum"));
+        assertEquals("5:1,7:1", values.get("latency.buckets"));
+        assertEquals("42", values.get("size"));
+
+        // Nothing has changed since.
+        assertTrue(registry.flush(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void registryReportsPendingDataOnlyAfterAnUpdate() {
+        final int[] notifications = {0};
+        MetricRegistry registry = new MetricRegistry(60000, new Runnable() {
+            @Override
+            public void run() {
+                ++notifications[0];
+            }
+        });
+        Counter counter = registry.counter("requests");
+        assertFalse(registry.hasPendingData());
+
+        counter.increment();
+        counter.increment();
+        assertTrue(registry.hasPendingData());
+        assertEquals(1, notifications[0]);
+
+        registry.flush(System.currentTimeMillis());
+        assertFalse(registry.hasPendingData());
+
+        registry.gauge("size").set(1);
+        assertTrue(registry.hasPendingData());
+        assertEquals(2, notifications[0]);
+    }
+}
@@ -0,0 +1,126 @@
+package com.logentries.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogentriesClientUdpTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TOKEN = "159axea4-0000-4000-8000-000000000000";
+    private static final int MAX_DATAGRAM_SIZE = 128;
+
+    private DatagramSocket server;
+    private LogentriesClient client;
+    private TransportStats stats;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.setSoTimeout(2000);
+        stats = new TransportStats();
+        client = new LogentriesClient(false, false, true, true, InetAddress.getLoopbackAddress().getHostAddress(),
+                server.getLocalPort(), TOKEN, MAX_DATAGRAM_SIZE, stats, null);
+        client.connect();
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void shortLinesArePackedIntoFewDatagrams() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 10; ++i) {
+            lines.add("line " + i);
+        }
+        client.write(lines);
+
+        List<String> received = receiveLines(stats.getDatagramsSent());
+        List<String> expected = new ArrayList<String>();
+        for (String line : lines) {
+            expected.add(TOKEN + " " + line);
+        }
+        assertEquals(expected, received);
+
+        // Each token-prefixed line takes 44 bytes - two of them fit into a datagram.
+        assertEquals(5, stats.getDatagramsSent());
+        assertEquals(10, stats.getLinesSent());
+    }
+
+    @Test
+    public void oversizeLineIsSplitOnCharacterBoundaries() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append('\u20ac'); // 3 bytes in UTF-8.
+        }
+        String line = sb.toString();
+        client.write(line);
+
+        assertEquals(1, stats.getOversizeLines());
+        List<String> chunks = receiveLines(stats.getDatagramsSent());
+        assertTrue(chunks.size() > 1);
+
+        StringBuilder joined = new StringBuilder();
+        for (String chunk : chunks) {
+            assertTrue(chunk, chunk.startsWith(TOKEN + " "));
+            joined.append(chunk.substring(TOKEN.length() + 1));
+        }
+        // No character has been cut in half.
+        assertEquals(line, joined.toString());
+    }
+
+    @Test
+    public void linesAreCountedOnceTheirDatagramIsSent() throws IOException {
+        // Nothing listens any more - the port unreachable reply to the first datagram fails the next send.
+        server.close();
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 10; ++i) {
+            lines.add("line " + i);
+        }
+
+        try {
+            client.write(lines);
+            fail();
+        } catch (PortUnreachableException ex) {
+            // Expected.
+        }
+        assertEquals(1, stats.getDatagramsSent());
+        assertEquals(2, stats.getLinesSent());
+        assertEquals(2, client.getSentLines());
+    }
+
+    /**
+     * Receives the given number of datagrams, checking their size, and returns their lines.
+     */
+    private List<String> receiveLines(long datagrams) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE * 2];
+        for (int i = 0; i < datagrams; ++i) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            server.receive(packet);
+            assertTrue(packet.getLength() <= MAX_DATAGRAM_SIZE);
+            String data = new String(packet.getData(), 0, packet.getLength(), UTF8);
+            assertTrue(data.endsWith("\n"));
+            lines.addAll(Arrays.asList(data.substring(0, data.length() - 1).split("\n")));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,191 @@
+package com.logentries.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import com.logentries.spi.DeviceInfo;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Device metadata from the system properties, cached in the shared preferences between launches.
+ */
+public class AndroidDeviceInfo implements DeviceInfo {
+
+    private static final String TAG = "LogentriesAndroidLogger";
+
+    /**
+     * Name of the shared preferences file used to persist the device metadata between launches.
+     */
+    private static final String METADATA_PREFS_NAME = "LogentriesMetadata";
+    private static final String PREF_FINGERPRINT = "fingerprint";
+    private static final String PREF_TRACE_ID = "traceID";
+    private static final String PREF_HOST_NAME = "hostName";
+
+    private final Context context;
+
+    // Both values are computed lazily - the reflective property lookups, the MD5 digest and
+    // host name resolution are too expensive to be done on the caller's thread
+    // (usually from Application.onCreate()).
+    private volatile String traceID = null;
+    private volatile String hostName = null;
+
+    /**
+     * @param context application context, used to access the metadata cache.
+     */
+    public AndroidDeviceInfo(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Loads the device metadata from the persistent cache, or computes and caches it if there is
+     * no valid cached copy yet. The cache is invalidated when the OS build changes.
+     */
+    @Override
+    public synchronized void load() {
+        if (traceID != null && hostName != null) {
+            return;
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(METADATA_PREFS_NAME, Context.MODE_PRIVATE);
+        String fingerprint = Build.FINGERPRINT == null ? "" : Build.FINGERPRINT;
+
+        if (fingerprint.equals(prefs.getString(PREF_FINGERPRINT, null))) {
+            String cachedTraceID = prefs.getString(PREF_TRACE_ID, null);
+            String cachedHostName = prefs.getString(PREF_HOST_NAME, null);
+            if (cachedTraceID != null && cachedHostName != null) {
+                traceID = cachedTraceID;
+                hostName = cachedHostName;
+                return;
+            }
+        }
+
+        String newTraceID = getTraceId();
+        String newHostName = getHostName();
+        prefs.edit()
+                .putString(PREF_FINGERPRINT, fingerprint)
+                .putString(PREF_TRACE_ID, newTraceID)
+                .putString(PREF_HOST_NAME, newHostName)
+                .apply();
+    }
+
+    @Override
+    public String getTraceId() {
+        String id = traceID;
+        if (id == null) {
+            synchronized (this) {
+                if (traceID == null) {
+                    traceID = loadTraceID();
+                }
+                id = traceID;
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public String getHostName() {
+        String name = hostName;
+        if (name == null) {
+            synchronized (this) {
+                if (hostName == null) {
+                    hostName = loadHostName();
+                }
+                name = hostName;
+            }
+        }
+        return name;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return Build.SERIAL;
+    }
+
+    // Requires at least API level 9 (v. >= 2.3).
+    private static String loadTraceID() {
+        try {
+            return computeTraceID();
+        } catch (NoSuchAlgorithmException ex) {
+            Log.e(TAG, "Cannot get traceID from device's properties!");
+            return "unknown";
+        }
+    }
+
+    private static String loadHostName() {
+        try {
+            String name = getProp("net.hostname");
+            if (name.equals("")) { // We have failed to get the real host name
+                // so, use the default one.
+                name = InetAddress.getLocalHost().getHostName();
+            }
+            return name;
+        } catch (UnknownHostException e) {
+            // We cannot resolve local host name - so won't use it at all.
+            return "";
+        }
+    }
+
+    private static String getProp(String propertyName) {
+
+        if (propertyName == null || propertyName.isEmpty()) {
+            return "";
+        }
+
+        try {
+            Method getString = Build.class.getDeclaredMethod("getString", String.class);
+            getString.setAccessible(true);
+            return getString.invoke(null, propertyName).toString();
+        } catch (Exception ex) {
+            // Ignore the exception - we simply couldn't access the property;
+            Log.e(TAG, ex.getMessage());
+        }
+
+        return "";
+    }
+
+    private static String computeTraceID() throws NoSuchAlgorithmException {
+
+        String fingerprint = getProp("ro.build.fingerprint");
+        String displayId = getProp("ro.build.display.id");
+        String hardware = getProp("ro.hardware");
+        String device = getProp("ro.product.device");
+        String rilImei = getProp("ril.IMEI");
+
+        MessageDigest hashGen = MessageDigest.getInstance("MD5");
+        byte[] digest = null;
+        if (fingerprint.isEmpty() & displayId.isEmpty() & hardware.isEmpty() & device.isEmpty() & rilImei.isEmpty()) {
+            Log.e(TAG, "Cannot obtain any of device's properties - will use default Trace ID source.");
+
+            Double randomTrace = Math.random() + Math.PI;
+            String defaultValue = randomTrace.toString();
+            randomTrace = Math.random() + Math.PI;
+            defaultValue += randomTrace.toString().replace(".", "");
+            // The code below fixes one strange bug, when call to a freshly installed app crashes at this
+            // point, because random() produces too short sequence. Note, that this behavior does not
+            // occur for the second and all further launches.
+            defaultValue = defaultValue.length() >= 36 ? defaultValue.substring(2, 34) :
+                    defaultValue.substring(2);
+
+            hashGen.update(defaultValue.getBytes());
+        } else {
+            StringBuilder sb = new StringBuilder();
+            sb.append(fingerprint).append(displayId).append(hardware).append(device).append(rilImei);
+            hashGen.update(sb.toString().getBytes());
+        }
+
+        digest = hashGen.digest();
+        StringBuilder conv = new StringBuilder();
+        for (byte b : digest) {
+            conv.append(String.format("%02x", b & 0xff).toUpperCase());
+        }
+
+        return conv.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.logentries.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.logentries.spi.DeviceInfo;
+import com.logentries.spi.Diagnostics;
+import com.logentries.spi.HttpTransport;
+import com.logentries.spi.Platform;
+
+import java.io.File;
+
+/**
+ * Runs the logging engine on Android: the files go to the app's private files directory,
+ * the diagnostic messages to logcat, and the device metadata comes from the system properties.
+ */
+public class AndroidPlatform implements Platform {
+
+    private final Context context;
+    private final DeviceInfo deviceInfo;
+
+    private final Diagnostics diagnostics = new Diagnostics() {
+        @Override
+        public void println(int priority, String tag, String message) {
+            Log.println(priority, tag, message != null ? message : "null");
+        }
+    };
+
+    public AndroidPlatform(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.deviceInfo = new AndroidDeviceInfo(this.context);
+    }
+
+    @Override
+    public File getStorageDir() {
+        return context.getFilesDir();
+    }
+
+    @Override
+    public Diagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    @Override
+    public DeviceInfo getDeviceInfo() {
+        return deviceInfo;
+    }
+
+    @Override
+    public HttpTransport newHttpTransport() {
+        return new ApacheHttpTransport();
+    }
+}
@@ -0,0 +1,54 @@
+package com.logentries.android;
+
+import com.logentries.spi.HttpTransport;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP transport built on the Apache HTTP client bundled with the library - the one the logger
+ * has always used on Android.
+ */
+public class ApacheHttpTransport implements HttpTransport {
+
+    private final HttpClient httpClient = new DefaultHttpClient();
+
+    @Override
+    public void post(String url, String body) throws IOException {
+        HttpPost postRequest = new HttpPost(url);
+        postRequest.setEntity(new StringEntity(body, "UTF8"));
+        HttpResponse response = httpClient.execute(postRequest);
+
+        // Release the connection so it can be reused. What EntityUtils.consume() does - it is not
+        // available in the Apache client built into Android 5.1 and older, which takes precedence.
+        HttpEntity entity = response.getEntity();
+        if (entity != null && entity.isStreaming()) {
+            InputStream content = entity.getContent();
+            if (content != null) {
+                content.close();
+            }
+        }
+
+        int status = response.getStatusLine().getStatusCode();
+        if (status >= 300) {
+            throw new StatusException(status, response.getStatusLine().getReasonPhrase());
+        }
+    }
+
+    /**
+     * Closes the idle connections. The connection manager is kept, so the transport stays usable
+     * after the client reconnects.
+     */
+    @Override
+    public void close() {
+        httpClient.getConnectionManager().closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,132 @@
+package com.logentries.jul;
+
+import android.util.Log;
+
+import com.logentries.logger.AndroidLogger;
+
+import java.text.MessageFormat;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * java.util.logging handler forwarding the records to Logentries. Level, logger name and
+ * exception are passed as separate fields of a structured message, which is rendered on the
+ * logger's own thread; the calling thread only substitutes the parameters of the message.
+ * <pre>
+ * Logger.getLogger("").addHandler(new LogentriesHandler());
+ * </pre>
+ * Levels are mapped to the android.util.Log priorities: SEVERE - ERROR, WARNING - WARN,
+ * INFO - INFO, CONFIG and FINE - DEBUG, FINER and FINEST - VERBOSE. Records published before
+ * the {@link AndroidLogger} instance has been created are dropped and reported to the handler's
+ * ErrorManager.
+ */
+public class LogentriesHandler extends Handler {
+
+    // Reused to format the parameterized messages - one buffer per calling thread.
+    private static final ThreadLocal<StringBuffer> formatBuffer = new ThreadLocal<StringBuffer>() {
+        @Override
+        protected StringBuffer initialValue() {
+            return new StringBuffer(256);
+        }
+    };
+
+    private final AndroidLogger logger;
+
+    /**
+     * Creates the handler forwarding the records to the current {@link AndroidLogger} instance.
+     */
+    public LogentriesHandler() {
+        this(null);
+    }
+
+    /**
+     * @param logger the logger to forward the records to; if null, the current {@link AndroidLogger}
+     *               instance is used.
+     */
+    public LogentriesHandler(AndroidLogger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        // Checks the level and the filter before anything gets formatted.
+        if (!isLoggable(record)) {
+            return;
+        }
+
+        AndroidLogger target = logger != null ? logger : AndroidLogger.peekInstance();
+        if (target == null) {
+            reportError("The AndroidLogger instance has not been created - the record is dropped.", null,
+                    ErrorManager.WRITE_FAILURE);
+            return;
+        }
+        target.log(toPriority(record.getLevel()), record.getLoggerName(), formatMessage(record),
+                record.getThrown(), null);
+    }
+
+    @Override
+    public void flush() {
+        // Nothing to flush - the records are queued and sent by the logger's own thread.
+    }
+
+    @Override
+    public void close() {
+        setLevel(Level.OFF);
+    }
+
+    /**
+     * Maps the java.util.logging level to one of the android.util.Log priorities.
+     */
+    public static int toPriority(Level level) {
+        int value = level.intValue();
+        if (value >= Level.SEVERE.intValue()) {
+            return Log.ERROR;
+        } else if (value >= Level.WARNING.intValue()) {
+            return Log.WARN;
+        } else if (value >= Level.INFO.intValue()) {
+            return Log.INFO;
+        } else if (value >= Level.FINE.intValue()) {
+            return Log.DEBUG;
+        }
+        return Log.VERBOSE;
+    }
+
+    private String formatMessage(LogRecord record) {
+        if (getFormatter() != null) {
+            return getFormatter().formatMessage(record);
+        }
+
+        String message = record.getMessage();
+        if (message == null) {
+            return null;
+        }
+
+        ResourceBundle bundle = record.getResourceBundle();
+        if (bundle != null) {
+            try {
+                message = bundle.getString(message);
+            } catch (MissingResourceException e) {
+                // Use the message as it is.
+            }
+        }
+
+        Object[] parameters = record.getParameters();
+        if (parameters == null || parameters.length == 0 || message.indexOf('{') < 0) {
+            return message;
+        }
+
+        StringBuffer buffer = formatBuffer.get();
+        buffer.setLength(0);
+        try {
+            new MessageFormat(message).format(parameters, buffer, null);
+        } catch (IllegalArgumentException e) {
+            // Not a valid pattern - use the message as it is.
+            return message;
+        }
+        return buffer.toString();
+    }
+}
@@ -1,31 +1,132 @@
 package com.logentries.logger;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
+
+import com.logentries.android.AndroidPlatform;
+import com.logentries.metrics.Counter;
+import com.logentries.metrics.Gauge;
+import com.logentries.metrics.Histogram;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class AndroidLogger {
 
-    private static AndroidLogger instance;
+    private static volatile AndroidLogger instance;
 
     private AsyncLoggingWorker loggingWorker;
 
-    private AndroidLogger(Context context, boolean useHttpPost, boolean useSsl, boolean isUsingDataHub, String dataHubAddr, int dataHubPort,
-                          String token, boolean logHostName) throws IOException {
-        loggingWorker = new AsyncLoggingWorker(context, useSsl, useHttpPost, isUsingDataHub, token, dataHubAddr, dataHubPort, logHostName);
+    private Context applicationContext;
+
+    /**
+     * Forwards the system's trim memory requests to the logging worker.
+     */
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            loggingWorker.onMemoryPressure(toMemoryPressure(level));
+        }
+
+        @Override
+        public void onLowMemory() {
+            loggingWorker.onMemoryPressure(AsyncLoggingWorker.MEMORY_PRESSURE_CRITICAL);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    private AndroidLogger(Context context, LoggerConfig config) throws IOException {
+        loggingWorker = new AsyncLoggingWorker(new AndroidPlatform(context), config);
+        applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        applicationContext.registerComponentCallbacks(memoryCallbacks);
+    }
+
+    /**
+     * Creates a logger over the given worker, without registering for the memory callbacks.
+     * Used by the tests.
+     */
+    AndroidLogger(AsyncLoggingWorker loggingWorker) {
+        this.loggingWorker = loggingWorker;
+    }
+
+    /**
+     * Maps the ComponentCallbacks2.TRIM_MEMORY_* level to the memory pressure level of the worker.
+     */
+    private static int toMemoryPressure(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return AsyncLoggingWorker.MEMORY_PRESSURE_CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return AsyncLoggingWorker.MEMORY_PRESSURE_LOW;
+        }
+        return AsyncLoggingWorker.MEMORY_PRESSURE_NONE;
     }
 
     public static synchronized AndroidLogger createInstance(Context context, boolean useHttpPost, boolean useSsl, boolean isUsingDataHub,
                                                             String dataHubAddr, int dataHubPort, String token, boolean logHostName)
             throws IOException {
+        LoggerConfig.Builder builder = new LoggerConfig.Builder(token)
+                .useHttpPost(useHttpPost)
+                .useSsl(useSsl)
+                .logHostName(logHostName);
+        if (isUsingDataHub) {
+            builder.useDataHub(dataHubAddr, dataHubPort);
+        }
+        return createInstance(context, builder.build());
+    }
+
+    /**
+     * Creates the logger instance with the given configuration, replacing the existing one.
+     *
+     * @param context application context.
+     * @param config  logger configuration, see {@link LoggerConfig.Builder}.
+     */
+    public static synchronized AndroidLogger createInstance(Context context, LoggerConfig config) throws IOException {
         if (instance != null) {
-            instance.loggingWorker.close();
+            if (instance.applicationContext != null) {
+                instance.applicationContext.unregisterComponentCallbacks(instance.memoryCallbacks);
+            }
+
+            // Let the previous worker flush its queue in the background - waiting for it here
+            // would block the caller (usually the main thread) on the network.
+            final AsyncLoggingWorker previousWorker = instance.loggingWorker;
+            Thread shutdownThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    previousWorker.close();
+                }
+            }, "Logentries worker shutdown");
+            shutdownThread.setDaemon(true);
+            shutdownThread.start();
         }
 
-        instance = new AndroidLogger(context, useHttpPost, useSsl, isUsingDataHub, dataHubAddr, dataHubPort, token, logHostName);
+        instance = new AndroidLogger(context, config);
+        return instance;
+    }
+
+    /**
+     * Returns the logger instance, or null if {@link #createInstance} has not been called yet.
+     * Unlike {@link #getInstance()}, it does not throw - for the bridges, which may receive
+     * messages before the app has created the logger.
+     */
+    public static AndroidLogger peekInstance() {
         return instance;
     }
 
+    /**
+     * Replaces the logger instance without closing the previous one. Used by the tests.
+     */
+    static synchronized void setInstance(AndroidLogger logger) {
+        instance = logger;
+    }
+
     public static synchronized AndroidLogger getInstance() {
         if (instance != null) {
             return instance;
@@ -50,8 +151,104 @@ public class AndroidLogger {
         return loggingWorker.getSendRawLogMessage();
     }
 
+    /**
+     * Returns the counter with the given name. Counts are aggregated on the device and sent
+     * in a single summary event every flush interval (see
+     * {@link LoggerConfig.Builder#metricsFlushIntervalMs}), instead of one event per occurrence.
+     */
+    public Counter counter(String name) {
+        return loggingWorker.getMetricRegistry().counter(name);
+    }
+
+    /**
+     * Returns the gauge with the given name. Its last value is sent in the summary event if it
+     * has been set since the previous flush.
+     */
+    public Gauge gauge(String name) {
+        return loggingWorker.getMetricRegistry().gauge(name);
+    }
+
+    /**
+     * Returns the histogram with the given name, e.g. for latencies. The count, sum and bucket
+     * counts of the values recorded since the previous flush are sent in the summary event.
+     */
+    public Histogram histogram(String name) {
+        return loggingWorker.getMetricRegistry().histogram(name);
+    }
+
+    /**
+     * Sets the listener receiving the periodic reports of the log sources profiler (see
+     * {@link LoggerConfig.Builder#profileSources}). If there is none, the reports are logged.
+     */
+    public void setSourceProfilerListener(SourceProfiler.Listener listener) {
+        loggingWorker.setSourceProfilerListener(listener);
+    }
+
+    /**
+     * Returns the logger's self-monitoring counters.
+     */
+    public LoggerMetrics getMetrics() {
+        return loggingWorker.getMetrics();
+    }
+
     public void log(String message) {
         loggingWorker.addLineToQueue(message);
     }
 
+    /**
+     * Logs the message with the given priority. Messages of {@link android.util.Log#ERROR} or
+     * higher priority bypass the regular queue and are sent first.
+     *
+     * @param priority one of {@link android.util.Log} priority constants.
+     * @param message  the message to be logged.
+     */
+    public void log(int priority, String message) {
+        loggingWorker.addLineToQueue(message, priority);
+    }
+
+    /**
+     * Logs the message with its metadata kept as separate fields rather than pre-rendered text.
+     * The message is rendered to a JSON object on the logger's own thread, so this call doesn't
+     * format anything on the caller's thread.
+     *
+     * @param priority one of {@link android.util.Log} priority constants.
+     * @param tag      the tag (or the logger name); may be null.
+     * @param message  the message; may be null.
+     * @param thrown   the exception to be logged with the message; may be null.
+     * @param fields   custom fields (e.g. MDC values); may be null. The map is copied.
+     */
+    public void log(int priority, String tag, String message, Throwable thrown, Map<String, String> fields) {
+        Map<String, String> fieldsCopy = fields == null || fields.isEmpty() ? null : new LinkedHashMap<String, String>(fields);
+        loggingWorker.addMessageToQueue(new StructuredMessage(priority, tag, message, thrown, fieldsCopy));
+    }
+
+    /**
+     * Logs the structured message as it is - its fields are not copied, so the map must not be
+     * modified after the call.
+     */
+    public void log(StructuredMessage message) {
+        loggingWorker.addMessageToQueue(message);
+    }
+
+    /**
+     * Logs several lines at once. The lines are queued as a single event, so the cost of
+     * queueing is paid once for the whole batch.
+     *
+     * @param lines the lines to be logged.
+     */
+    public void logAll(Iterable<? extends CharSequence> lines) {
+        loggingWorker.addLinesToQueue(lines);
+    }
+
+    /**
+     * Logs '\n'-separated lines which are already encoded in UTF-8. The content of the buffer from
+     * its position to its limit is sent as it is, without being decoded or copied, so the buffer
+     * must not be modified after the call.
+     *
+     * @param utf8Lines the encoded lines to be logged.
+     */
+    public void logUtf8(ByteBuffer utf8Lines) {
+        loggingWorker.addUtf8LinesToQueue(utf8Lines);
+    }
+
 }
@@ -0,0 +1,324 @@
+package com.logentries.slf4j;
+
+import android.util.Log;
+
+import com.logentries.logger.AndroidLogger;
+import com.logentries.logger.StructuredMessage;
+
+import org.slf4j.helpers.MarkerIgnoringBase;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * SLF4J logger forwarding the messages to the current {@link AndroidLogger} instance. Levels are
+ * checked before anything is formatted; level, logger name, exception and MDC values are passed
+ * as separate fields of a structured message, which is rendered on the logger's own thread. The
+ * calling thread only substitutes the '{}' placeholders, using a per-thread buffer. Markers are
+ * ignored. Messages logged before the instance has been created are dropped.
+ */
+public class LogentriesLogger extends MarkerIgnoringBase {
+
+    private static final long serialVersionUID = 1L;
+
+    // Reused to substitute the placeholders - one buffer per calling thread.
+    private static final ThreadLocal<StringBuilder> formatBuffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final transient LogentriesLoggerFactory factory;
+
+    LogentriesLogger(String name, LogentriesLoggerFactory factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return isEnabled(Log.VERBOSE);
+    }
+
+    @Override
+    public void trace(String msg) {
+        if (isEnabled(Log.VERBOSE)) {
+            log(Log.VERBOSE, msg, null);
+        }
+    }
+
+    @Override
+    public void trace(String format, Object arg) {
+        if (isEnabled(Log.VERBOSE)) {
+            formatAndLog(Log.VERBOSE, format, new Object[]{arg});
+        }
+    }
+
+    @Override
+    public void trace(String format, Object arg1, Object arg2) {
+        if (isEnabled(Log.VERBOSE)) {
+            formatAndLog(Log.VERBOSE, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    @Override
+    public void trace(String format, Object... arguments) {
+        if (isEnabled(Log.VERBOSE)) {
+            formatAndLog(Log.VERBOSE, format, arguments);
+        }
+    }
+
+    @Override
+    public void trace(String msg, Throwable t) {
+        if (isEnabled(Log.VERBOSE)) {
+            log(Log.VERBOSE, msg, t);
+        }
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return isEnabled(Log.DEBUG);
+    }
+
+    @Override
+    public void debug(String msg) {
+        if (isEnabled(Log.DEBUG)) {
+            log(Log.DEBUG, msg, null);
+        }
+    }
+
+    @Override
+    public void debug(String format, Object arg) {
+        if (isEnabled(Log.DEBUG)) {
+            formatAndLog(Log.DEBUG, format, new Object[]{arg});
+        }
+    }
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {
+        if (isEnabled(Log.DEBUG)) {
+            formatAndLog(Log.DEBUG, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    @Override
+    public void debug(String format, Object... arguments) {
+        if (isEnabled(Log.DEBUG)) {
+            formatAndLog(Log.DEBUG, format, arguments);
+        }
+    }
+
+    @Override
+    public void debug(String msg, Throwable t) {
+        if (isEnabled(Log.DEBUG)) {
+            log(Log.DEBUG, msg, t);
+        }
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return isEnabled(Log.INFO);
+    }
+
+    @Override
+    public void info(String msg) {
+        if (isEnabled(Log.INFO)) {
+            log(Log.INFO, msg, null);
+        }
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        if (isEnabled(Log.INFO)) {
+            formatAndLog(Log.INFO, format, new Object[]{arg});
+        }
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        if (isEnabled(Log.INFO)) {
+            formatAndLog(Log.INFO, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    @Override
+    public void info(String format, Object... arguments) {
+        if (isEnabled(Log.INFO)) {
+            formatAndLog(Log.INFO, format, arguments);
+        }
+    }
+
+    @Override
+    public void info(String msg, Throwable t) {
+        if (isEnabled(Log.INFO)) {
+            log(Log.INFO, msg, t);
+        }
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return isEnabled(Log.WARN);
+    }
+
+    @Override
+    public void warn(String msg) {
+        if (isEnabled(Log.WARN)) {
+            log(Log.WARN, msg, null);
+        }
+    }
+
+    @Override
+    public void warn(String format, Object arg) {
+        if (isEnabled(Log.WARN)) {
+            formatAndLog(Log.WARN, format, new Object[]{arg});
+        }
+    }
+
+    @Override
+    public void warn(String format, Object arg1, Object arg2) {
+        if (isEnabled(Log.WARN)) {
+            formatAndLog(Log.WARN, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    @Override
+    public void warn(String format, Object... arguments) {
+        if (isEnabled(Log.WARN)) {
+            formatAndLog(Log.WARN, format, arguments);
+        }
+    }
+
+    @Override
+    public void warn(String msg, Throwable t) {
+        if (isEnabled(Log.WARN)) {
+            log(Log.WARN, msg, t);
+        }
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return isEnabled(Log.ERROR);
+    }
+
+    @Override
+    public void error(String msg) {
+        if (isEnabled(Log.ERROR)) {
+            log(Log.ERROR, msg, null);
+        }
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        if (isEnabled(Log.ERROR)) {
+            formatAndLog(Log.ERROR, format, new Object[]{arg});
+        }
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        if (isEnabled(Log.ERROR)) {
+            formatAndLog(Log.ERROR, format, new Object[]{arg1, arg2});
+        }
+    }
+
+    @Override
+    public void error(String format, Object... arguments) {
+        if (isEnabled(Log.ERROR)) {
+            formatAndLog(Log.ERROR, format, arguments);
+        }
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+        if (isEnabled(Log.ERROR)) {
+            log(Log.ERROR, msg, t);
+        }
+    }
+
+    /**
+     * Substitutes the placeholders and logs the message. As in SLF4J, a Throwable passed as the
+     * last argument is logged as the exception rather than substituted.
+     */
+    private void formatAndLog(int priority, String format, Object[] arguments) {
+        Throwable throwable = null;
+        if (arguments != null && arguments.length > 0 && arguments[arguments.length - 1] instanceof Throwable) {
+            throwable = (Throwable) arguments[arguments.length - 1];
+            arguments = Arrays.copyOf(arguments, arguments.length - 1);
+        }
+        log(priority, format(format, arguments), throwable);
+    }
+
+    private void log(int priority, String message, Throwable throwable) {
+        AndroidLogger logger = AndroidLogger.peekInstance();
+        if (logger == null) {
+            return; // Not created yet - nothing to log to.
+        }
+
+        // The copy of the MDC map is passed on as it is, without being copied again.
+        Map<String, String> fields = factory.getMDCAdapter().getCopyOfContextMap();
+        logger.log(new StructuredMessage(priority, name, message, throwable, nullIfEmpty(fields)));
+    }
+
+    private boolean isEnabled(int priority) {
+        return priority >= factory.getMinPriority();
+    }
+
+    private static Map<String, String> nullIfEmpty(Map<String, String> fields) {
+        return fields == null || fields.isEmpty() ? null : fields;
+    }
+
+    /**
+     * Substitutes the '{}' placeholders of the pattern with the arguments; "\\{}" is left as "{}".
+     */
+    private static String format(String pattern, Object[] arguments) {
+        if (pattern == null || arguments == null || arguments.length == 0) {
+            return pattern;
+        }
+
+        StringBuilder sb = formatBuffer.get();
+        sb.setLength(0);
+
+        int start = 0;
+        int argument = 0;
+        while (argument < arguments.length) {
+            int placeholder = pattern.indexOf("{}", start);
+            if (placeholder < 0) {
+                break;
+            }
+            if (placeholder > 0 && pattern.charAt(placeholder - 1) == '\\') {
+                // Escaped placeholder.
+                sb.append(pattern, start, placeholder - 1).append("{}");
+                start = placeholder + 2;
+                continue;
+            }
+            sb.append(pattern, start, placeholder);
+            appendArgument(sb, arguments[argument++]);
+            start = placeholder + 2;
+        }
+        sb.append(pattern, start, pattern.length());
+
+        String message = sb.toString();
+        if (sb.capacity() > 64 * 1024) {
+            // Don't keep a huge buffer around because of a single huge message.
+            formatBuffer.remove();
+        }
+        return message;
+    }
+
+    private static void appendArgument(StringBuilder sb, Object argument) {
+        try {
+            if (argument instanceof Object[]) {
+                sb.append(Arrays.deepToString((Object[]) argument));
+            } else if (argument != null && argument.getClass().isArray()) {
+                // Primitive array - let deepToString() pick the right toString() and drop the outer brackets.
+                String wrapped = Arrays.deepToString(new Object[]{argument});
+                sb.append(wrapped, 1, wrapped.length() - 1);
+            } else {
+                sb.append(argument);
+            }
+        } catch (RuntimeException e) {
+            sb.append("[FAILED toString()]");
+        }
+    }
+}
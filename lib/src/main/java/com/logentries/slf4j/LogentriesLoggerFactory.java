@@ -0,0 +1,60 @@
+package com.logentries.slf4j;
+
+import android.util.Log;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.spi.MDCAdapter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the SLF4J loggers and holds the minimum priority of the messages they forward:
+ * <pre>
+ * ((LogentriesLoggerFactory) LoggerFactory.getILoggerFactory()).setMinPriority(Log.DEBUG);
+ * </pre>
+ */
+public class LogentriesLoggerFactory implements ILoggerFactory {
+
+    private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+    private final MDCAdapter mdcAdapter;
+
+    private volatile int minPriority = Log.INFO;
+
+    public LogentriesLoggerFactory(MDCAdapter mdcAdapter) {
+        this.mdcAdapter = mdcAdapter;
+    }
+
+    @Override
+    public Logger getLogger(String name) {
+        Logger logger = loggers.get(name);
+        if (logger == null) {
+            Logger newLogger = new LogentriesLogger(name, this);
+            logger = loggers.putIfAbsent(name, newLogger);
+            if (logger == null) {
+                logger = newLogger;
+            }
+        }
+        return logger;
+    }
+
+    /**
+     * Returns the minimum android.util.Log priority of the messages sent to Logentries.
+     */
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    /**
+     * Sets the minimum android.util.Log priority of the messages sent to Logentries. Default is
+     * {@link Log#INFO}.
+     */
+    public void setMinPriority(int minPriority) {
+        this.minPriority = minPriority;
+    }
+
+    MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+}
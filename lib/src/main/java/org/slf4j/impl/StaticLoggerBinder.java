@@ -0,0 +1,42 @@
+package org.slf4j.impl;
+
+import com.logentries.slf4j.LogentriesLoggerFactory;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.spi.LoggerFactoryBinder;
+
+/**
+ * SLF4J 1.7 binding routing all SLF4J logging to Logentries. It is picked up by SLF4J
+ * automatically when the library is on the classpath; the {@link com.logentries.logger.AndroidLogger}
+ * instance has to be created before anything is logged.
+ */
+public class StaticLoggerBinder implements LoggerFactoryBinder {
+
+    private static final StaticLoggerBinder SINGLETON = new StaticLoggerBinder();
+
+    /**
+     * The SLF4J API version the binding is compiled against. Not final, so that the compiler
+     * does not inline it into SLF4J's version check.
+     */
+    public static String REQUESTED_API_VERSION = "1.7.36";
+
+    private final LogentriesLoggerFactory loggerFactory =
+            new LogentriesLoggerFactory(StaticMDCBinder.getSingleton().getMDCA());
+
+    private StaticLoggerBinder() {
+    }
+
+    public static StaticLoggerBinder getSingleton() {
+        return SINGLETON;
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggerFactory;
+    }
+
+    @Override
+    public String getLoggerFactoryClassStr() {
+        return LogentriesLoggerFactory.class.getName();
+    }
+}
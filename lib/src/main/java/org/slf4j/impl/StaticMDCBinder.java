@@ -0,0 +1,30 @@
+package org.slf4j.impl;
+
+import org.slf4j.helpers.BasicMDCAdapter;
+import org.slf4j.spi.MDCAdapter;
+
+/**
+ * Provides the MDC adapter to SLF4J 1.7. The values put in the MDC are sent as fields of the
+ * messages logged on the same thread.
+ */
+public class StaticMDCBinder {
+
+    public static final StaticMDCBinder SINGLETON = new StaticMDCBinder();
+
+    private final MDCAdapter mdcAdapter = new BasicMDCAdapter();
+
+    private StaticMDCBinder() {
+    }
+
+    public static StaticMDCBinder getSingleton() {
+        return SINGLETON;
+    }
+
+    public MDCAdapter getMDCA() {
+        return mdcAdapter;
+    }
+
+    public String getMDCAdapterClassStr() {
+        return BasicMDCAdapter.class.getName();
+    }
+}
@@ -0,0 +1,194 @@
+package com.logentries.android;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class AndroidDeviceInfoTest {
+
+    private final FakeSharedPreferences prefs = new FakeSharedPreferences();
+
+    private final Context context = new ContextWrapper(null) {
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            assertEquals("LogentriesMetadata", name);
+            return prefs;
+        }
+    };
+
+    @Test
+    public void loadedMetadataIsCached() {
+        AndroidDeviceInfo deviceInfo = new AndroidDeviceInfo(context);
+        deviceInfo.load();
+
+        assertNotNull(deviceInfo.getTraceId());
+        assertEquals(fingerprint(), prefs.getString("fingerprint", null));
+        assertEquals(deviceInfo.getTraceId(), prefs.getString("traceID", null));
+        assertEquals(deviceInfo.getHostName(), prefs.getString("hostName", null));
+    }
+
+    @Test
+    public void cachedMetadataIsReused() {
+        prefs.edit()
+                .putString("fingerprint", fingerprint())
+                .putString("traceID", "CACHEDTRACEID")
+                .putString("hostName", "cached-host")
+                .apply();
+
+        AndroidDeviceInfo deviceInfo = new AndroidDeviceInfo(context);
+        deviceInfo.load();
+
+        assertEquals("CACHEDTRACEID", deviceInfo.getTraceId());
+        assertEquals("cached-host", deviceInfo.getHostName());
+    }
+
+    @Test
+    public void cacheIsInvalidatedWhenTheBuildChanges() {
+        prefs.edit()
+                .putString("fingerprint", "previous/build")
+                .putString("traceID", "CACHEDTRACEID")
+                .putString("hostName", "cached-host")
+                .apply();
+
+        AndroidDeviceInfo deviceInfo = new AndroidDeviceInfo(context);
+        deviceInfo.load();
+
+        assertFalse("CACHEDTRACEID".equals(deviceInfo.getTraceId()));
+        assertEquals(fingerprint(), prefs.getString("fingerprint", null));
+        assertEquals(deviceInfo.getTraceId(), prefs.getString("traceID", null));
+    }
+
+    private static String fingerprint() {
+        return Build.FINGERPRINT == null ? "" : Build.FINGERPRINT;
+    }
+
+    /**
+     * In-memory shared preferences; the edits are applied immediately.
+     */
+    private static class FakeSharedPreferences implements SharedPreferences, SharedPreferences.Editor {
+
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<String, Object>(values);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return values.containsKey(key) ? (String) values.get(key) : defValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return values.containsKey(key) ? (Set<String>) values.get(key) : defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return values.containsKey(key) ? (Long) values.get(key) : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return values.containsKey(key) ? (Float) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return this;
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            values.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            values.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return true;
+        }
+
+        @Override
+        public void apply() {
+        }
+    }
+}
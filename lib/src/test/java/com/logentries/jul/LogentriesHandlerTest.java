@@ -0,0 +1,92 @@
+package com.logentries.jul;
+
+import android.util.Log;
+
+import com.logentries.logger.CapturingLogger;
+import com.logentries.logger.StructuredMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LogentriesHandlerTest {
+
+    private CapturingLogger capturing;
+    private LogentriesHandler handler;
+
+    @Before
+    public void setUp() throws IOException {
+        capturing = new CapturingLogger();
+        handler = new LogentriesHandler(capturing.getLogger());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        capturing.close();
+    }
+
+    @Test
+    public void levelsAreMappedToThePriorities() {
+        assertEquals(Log.ERROR, LogentriesHandler.toPriority(Level.SEVERE));
+        assertEquals(Log.WARN, LogentriesHandler.toPriority(Level.WARNING));
+        assertEquals(Log.INFO, LogentriesHandler.toPriority(Level.INFO));
+        assertEquals(Log.DEBUG, LogentriesHandler.toPriority(Level.CONFIG));
+        assertEquals(Log.DEBUG, LogentriesHandler.toPriority(Level.FINE));
+        assertEquals(Log.VERBOSE, LogentriesHandler.toPriority(Level.FINER));
+        assertEquals(Log.VERBOSE, LogentriesHandler.toPriority(Level.FINEST));
+    }
+
+    @Test
+    public void recordIsPassedAsStructuredMessage() {
+        IllegalStateException thrown = new IllegalStateException("broken");
+        LogRecord record = new LogRecord(Level.WARNING, "user {0} has {1} items");
+        record.setLoggerName("com.example.Cart");
+        record.setParameters(new Object[]{"bob", 3});
+        record.setThrown(thrown);
+        handler.publish(record);
+
+        StructuredMessage message = capturing.poll();
+        assertEquals(Log.WARN, message.getPriority());
+        assertEquals("com.example.Cart", message.getTag());
+        assertEquals("user bob has 3 items", message.getMessage());
+        assertSame(thrown, message.getThrown());
+        assertNull(capturing.poll());
+    }
+
+    @Test
+    public void invalidPatternIsLoggedAsItIs() {
+        LogRecord record = new LogRecord(Level.INFO, "unbalanced {0");
+        record.setParameters(new Object[]{"value"});
+        handler.publish(record);
+
+        assertEquals("unbalanced {0", capturing.poll().getMessage());
+    }
+
+    @Test
+    public void recordsBelowTheLevelAreNotLogged() {
+        handler.setLevel(Level.INFO);
+        handler.publish(new LogRecord(Level.FINE, "detail"));
+        handler.publish(new LogRecord(Level.INFO, "summary"));
+
+        assertEquals("summary", capturing.poll().getMessage());
+        assertNull(capturing.poll());
+    }
+
+    @Test
+    public void currentInstanceIsUsedByDefault() {
+        capturing.install();
+        new LogentriesHandler().publish(new LogRecord(Level.SEVERE, "failure"));
+
+        StructuredMessage message = capturing.poll();
+        assertEquals(Log.ERROR, message.getPriority());
+        assertEquals("failure", message.getMessage());
+    }
+}
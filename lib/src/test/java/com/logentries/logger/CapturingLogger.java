@@ -0,0 +1,79 @@
+package com.logentries.logger;
+
+import com.logentries.jvm.JvmDeviceInfo;
+import com.logentries.jvm.JvmPlatform;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Logger instance for the bridge tests. Its appender thread is held up until the logger is
+ * closed, so the messages stay in the queue, where the tests pick them up.
+ */
+public class CapturingLogger {
+
+    private static final String TOKEN = "159a0ea4-0000-4000-8000-000000000000";
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final File storageDir;
+    private final AsyncLoggingWorker worker;
+    private final AndroidLogger logger;
+
+    public CapturingLogger() throws IOException {
+        storageDir = File.createTempFile("bridge", "");
+        if (!storageDir.delete() || !storageDir.mkdirs()) {
+            throw new IOException("Cannot create " + storageDir);
+        }
+
+        worker = new AsyncLoggingWorker(new JvmPlatform(storageDir, new JvmDeviceInfo() {
+            @Override
+            public void load() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                super.load();
+            }
+        }), new LoggerConfig.Builder(TOKEN).build());
+        logger = new AndroidLogger(worker);
+    }
+
+    public AndroidLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Makes the logger the current {@link AndroidLogger} instance.
+     */
+    public void install() {
+        AndroidLogger.setInstance(logger);
+    }
+
+    /**
+     * Returns the oldest message logged, or null if there is none.
+     */
+    public StructuredMessage poll() {
+        LogEvent event = worker.pollPending();
+        return event != null ? event.getStructured() : null;
+    }
+
+    public void close() throws InterruptedException {
+        AndroidLogger.setInstance(null);
+        while (poll() != null) {
+            // Nothing left for the worker to send or store.
+        }
+        release.countDown();
+        worker.close(1000);
+        worker.getAppenderThread().join(1000);
+
+        File[] files = storageDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        storageDir.delete();
+    }
+}
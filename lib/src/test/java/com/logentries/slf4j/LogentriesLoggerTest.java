@@ -0,0 +1,120 @@
+package com.logentries.slf4j;
+
+import android.util.Log;
+
+import com.logentries.logger.CapturingLogger;
+import com.logentries.logger.StructuredMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.helpers.BasicMDCAdapter;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LogentriesLoggerTest {
+
+    private CapturingLogger capturing;
+    private LogentriesLoggerFactory factory;
+    private Logger logger;
+
+    @Before
+    public void setUp() throws IOException {
+        capturing = new CapturingLogger();
+        capturing.install();
+        factory = new LogentriesLoggerFactory(new BasicMDCAdapter());
+        logger = factory.getLogger("com.example.Cart");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        capturing.close();
+    }
+
+    @Test
+    public void messagesBelowTheMinPriorityAreNotLogged() {
+        assertFalse(logger.isDebugEnabled());
+        logger.debug("detail {}", "value");
+        logger.info("summary");
+        assertEquals("summary", capturing.poll().getMessage());
+        assertNull(capturing.poll());
+
+        factory.setMinPriority(Log.VERBOSE);
+        assertTrue(logger.isTraceEnabled());
+        logger.trace("trace");
+        StructuredMessage message = capturing.poll();
+        assertEquals(Log.VERBOSE, message.getPriority());
+        assertEquals("com.example.Cart", message.getTag());
+    }
+
+    @Test
+    public void placeholdersAreSubstituted() {
+        logger.info("user {} has {} items", "bob", 3);
+        logger.info("{} {} {}", "a", "b", "c");
+        logger.info("escaped \\{} and {}", "value");
+        logger.info("array {}", new int[]{1, 2});
+        logger.info("missing {} {}", "one");
+
+        assertEquals("user bob has 3 items", capturing.poll().getMessage());
+        assertEquals("a b c", capturing.poll().getMessage());
+        assertEquals("escaped {} and value", capturing.poll().getMessage());
+        assertEquals("array [1, 2]", capturing.poll().getMessage());
+        assertEquals("missing one {}", capturing.poll().getMessage());
+    }
+
+    @Test
+    public void trailingThrowableIsLoggedAsTheException() {
+        IllegalStateException thrown = new IllegalStateException("broken");
+        logger.error("failed for {}", "bob", thrown);
+
+        StructuredMessage message = capturing.poll();
+        assertEquals(Log.ERROR, message.getPriority());
+        assertEquals("failed for bob", message.getMessage());
+        assertSame(thrown, message.getThrown());
+
+        logger.warn("plain", thrown);
+        assertSame(thrown, capturing.poll().getThrown());
+    }
+
+    @Test
+    public void mdcValuesArePassedAsFields() {
+        BasicMDCAdapter mdc = (BasicMDCAdapter) factory.getMDCAdapter();
+        mdc.put("user", "bob");
+        try {
+            logger.info("with mdc");
+        } finally {
+            mdc.clear();
+        }
+        logger.info("without mdc");
+
+        assertEquals(Collections.singletonMap("user", "bob"), capturing.poll().getFields());
+        assertNull(capturing.poll().getFields());
+    }
+
+    @Test
+    public void bindingIsPickedUpBySlf4j() {
+        assertTrue(LoggerFactory.getILoggerFactory() instanceof LogentriesLoggerFactory);
+
+        MDC.put("request", "42");
+        try {
+            LoggerFactory.getLogger("bound").warn("through the binding");
+        } finally {
+            MDC.remove("request");
+        }
+
+        StructuredMessage message = capturing.poll();
+        assertEquals("bound", message.getTag());
+        assertEquals("through the binding", message.getMessage());
+        assertEquals("42", message.getFields().get("request"));
+    }
+}